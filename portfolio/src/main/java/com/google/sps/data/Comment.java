@@ -24,14 +24,21 @@ public abstract class Comment {
   public abstract String name();
   public abstract String email();
   public abstract Optional<String> imageUrl();
+  public abstract Optional<ImageUrls> imageUrls();
+  // Blobstore key of the image, kept so it can be deleted with the comment. Never sent to clients.
+  public abstract Optional<String> imageBlobKey();
   public abstract String commentText();
   public abstract long sentimentScore();
   public abstract long timeStamp();
 
   /** Returns a Builder for a Comment. */
   public static Builder builder() {
-    return new AutoValue_Comment.Builder().setImageUrl(Optional.empty());
+    return new AutoValue_Comment.Builder().setImageUrl(Optional.empty()).setImageUrls(Optional.empty())
+        .setImageBlobKey(Optional.empty());
   }
+
+  /** Returns a Builder holding the values of this comment, for copies that change some of them. */
+  public abstract Builder toBuilder();
   
   /** Builder object for Comment. */
   @AutoValue.Builder
@@ -40,6 +47,8 @@ public abstract class Comment {
     public abstract Builder setName(String name);
     public abstract Builder setEmail(String email);
     public abstract Builder setImageUrl(Optional<String> imageUrl);
+    public abstract Builder setImageUrls(Optional<ImageUrls> imageUrls);
+    public abstract Builder setImageBlobKey(Optional<String> imageBlobKey);
     public abstract Builder setCommentText(String commentText);
     public abstract Builder setSentimentScore(long sentimentScore);
     public abstract Builder setTimeStamp(long timeStamp);
@@ -0,0 +1,97 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Process-level cache of comment pages read from Datastore. Every comment write or delete
+ * must call {@link #invalidate()}. Entries also expire after a fixed time so that writes
+ * made by other instances are eventually picked up.
+ */
+public final class CommentCache {
+  // Number of pages kept before the least recently used page is evicted.
+  private static final int MAX_PAGES = 200;
+  // Time a page may be served from memory before it is read from Datastore again.
+  private static final long TIME_TO_LIVE_MILLIS = 60 * 1000;
+
+  private static final CommentCache INSTANCE = new CommentCache();
+
+  private final Map<String, CachedPage> pages =
+      new LinkedHashMap<String, CachedPage>(16, 0.75f, /* accessOrder= */ true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedPage> eldest) {
+          return size() > MAX_PAGES;
+        }
+      };
+
+  // Incremented on every invalidation so pages read before a write are never cached after it.
+  private long generation = 0;
+
+  private CommentCache() {}
+
+  /** Returns the cache shared by every servlet in this instance. */
+  public static CommentCache getInstance() {
+    return INSTANCE;
+  }
+
+  /** Returns the current generation, to be passed back to {@link #put} after reading a page. */
+  public synchronized long generation() {
+    return generation;
+  }
+
+  /** Returns the page stored under {@code key}, or an empty optional if it is missing or expired. */
+  public synchronized Optional<CommentPage> get(String key) {
+    CachedPage cachedPage = pages.get(key);
+    if (cachedPage == null) {
+      return Optional.empty();
+    }
+    if (System.currentTimeMillis() - cachedPage.cachedAt > TIME_TO_LIVE_MILLIS) {
+      pages.remove(key);
+      return Optional.empty();
+    }
+    return Optional.of(cachedPage.page);
+  }
+
+  /**
+   * Stores {@code page} under {@code key}, unless the cache was invalidated since
+   * {@code readGeneration} was taken.
+   */
+  public synchronized void put(String key, CommentPage page, long readGeneration) {
+    if (readGeneration != generation) {
+      return;
+    }
+    pages.put(key, new CachedPage(page, System.currentTimeMillis()));
+  }
+
+  /** Drops every cached page. Called whenever comments are written or deleted. */
+  public synchronized void invalidate() {
+    generation++;
+    pages.clear();
+  }
+
+  /** Page of comments along with the time it was cached. */
+  private static class CachedPage {
+    private final CommentPage page;
+    private final long cachedAt;
+
+    private CachedPage(CommentPage page, long cachedAt) {
+      this.page = page;
+      this.cachedAt = cachedAt;
+    }
+  }
+}
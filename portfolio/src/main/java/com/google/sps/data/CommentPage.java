@@ -0,0 +1,45 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.auto.value.AutoValue;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Stores one page of comments and the cursor pointing at the page after it. Pages of changes
+ * since a time stamp also carry the time of the latest deletion after it, if any.
+ */
+@AutoValue
+public abstract class CommentPage {
+  public abstract List<Comment> comments();
+  public abstract Optional<String> nextCursor();
+  public abstract Optional<Long> deletedBefore();
+
+  /** Returns a Builder for a CommentPage. */
+  public static Builder builder() {
+    return new AutoValue_CommentPage.Builder().setNextCursor(Optional.empty())
+        .setDeletedBefore(Optional.empty());
+  }
+
+  /** Builder object for CommentPage. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    public abstract Builder setComments(List<Comment> comments);
+    public abstract Builder setNextCursor(Optional<String> nextCursor);
+    public abstract Builder setDeletedBefore(Optional<Long> deletedBefore);
+    public abstract CommentPage build();
+  }
+}
@@ -0,0 +1,328 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Process-level inverted index over the text and author name of comments. Every word of a
+ * search query matches any indexed word it is a prefix of, and a comment must match every
+ * query word. Results are ranked by how often and how rarely their matching words occur.
+ * Only the words and time stamp of each comment are kept; matching comments are read back
+ * from storage when a page of results is sent.
+ *
+ * <p>The index is kept up to date by {@link #add} and {@link #clear} on every write and
+ * delete made by this instance. {@link #catchUp} reads what other instances changed since the
+ * newest comment indexed, which is normally a handful of comments. The first catch-up reads
+ * every comment, and should run in a warmup request rather than in a search.
+ */
+public final class CommentSearchIndex {
+  // Time between catch-ups. Searches in between use the index as it is.
+  private static final long CATCH_UP_INTERVAL_MILLIS = 30 * 1000;
+  // How far before the newest comment indexed a catch-up starts. Comments can be stored after
+  // a newer one when server clocks differ or writes are batched, and would be missed otherwise.
+  private static final long CATCH_UP_OVERLAP_MILLIS = 15 * 1000;
+
+  private static final CommentSearchIndex INSTANCE = new CommentSearchIndex();
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // Maps each indexed word to the ids of the comments containing it and how often it appears.
+  private final NavigableMap<String, Map<Long, Integer>> postings = new TreeMap<>();
+  // Time stamps of the indexed comments by id, used to break ties between equal scores.
+  private final Map<Long, Long> timeStamps = new HashMap<>();
+  // Time stamp of the newest comment read by a catch-up, or -1 if none has finished yet.
+  private long caughtUpTo = -1;
+  // Time the last catch-up finished.
+  private long caughtUpAt = 0;
+  // Released when the running catch-up ends, or null if none is running.
+  private CountDownLatch runningCatchUp;
+
+  private CommentSearchIndex() {}
+
+  /** Returns the index shared by every servlet in this instance. */
+  public static CommentSearchIndex getInstance() {
+    return INSTANCE;
+  }
+
+  /** Reads what changed in storage since a time stamp. */
+  public interface ChangeReader {
+    /**
+     * Calls {@code action} with every comment written at or after {@code since}, and returns
+     * the time of the latest deletion after it, if any. Comments only need their id, author
+     * name, text and time stamp filled in.
+     */
+    Optional<Long> readChanges(long since, Consumer<Comment> action);
+  }
+
+  /**
+   * Catches up with {@code changeReader} if the last catch-up is older than
+   * {@code CATCH_UP_INTERVAL_MILLIS}. Only one caller catches up at a time; the others keep
+   * searching the index as it is, or wait if no catch-up has finished yet.
+   */
+  public void catchUpIfDue(ChangeReader changeReader) {
+    lock.readLock().lock();
+    try {
+      if (caughtUpTo >= 0 && System.currentTimeMillis() - caughtUpAt <= CATCH_UP_INTERVAL_MILLIS) {
+        return;
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    catchUp(changeReader);
+  }
+
+  /**
+   * Adds the comments written since shortly before the newest comment indexed, read with
+   * {@code changeReader}, and drops comments deleted meanwhile. Reads every comment the first time.
+   */
+  public void catchUp(ChangeReader changeReader) {
+    // The catch-up another caller is running, or null if this caller catches up.
+    CountDownLatch otherCatchUp;
+    boolean neverCaughtUp;
+    long since;
+    lock.writeLock().lock();
+    try {
+      neverCaughtUp = caughtUpTo < 0;
+      since = Math.max(caughtUpTo - CATCH_UP_OVERLAP_MILLIS, 0);
+      if (runningCatchUp == null) {
+        runningCatchUp = new CountDownLatch(1);
+        otherCatchUp = null;
+      } else {
+        otherCatchUp = runningCatchUp;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+    if (otherCatchUp != null) {
+      if (neverCaughtUp) {
+        awaitCatchUp(otherCatchUp);
+      }
+      return;
+    }
+    try {
+      long[] newest = {since};
+      Optional<Long> deletedBefore = changeReader.readChanges(since, comment -> {
+        put(comment);
+        newest[0] = Math.max(newest[0], comment.timeStamp());
+      });
+
+      lock.writeLock().lock();
+      try {
+        if (deletedBefore.isPresent()) {
+          removeUpTo(deletedBefore.get());
+        }
+        caughtUpTo = Math.max(caughtUpTo, newest[0]);
+        caughtUpAt = System.currentTimeMillis();
+      } finally {
+        lock.writeLock().unlock();
+      }
+    } finally {
+      lock.writeLock().lock();
+      try {
+        runningCatchUp.countDown();
+        runningCatchUp = null;
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
+  private static void awaitCatchUp(CountDownLatch catchUp) {
+    try {
+      catchUp.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Adds a newly written {@code comment} to the index. */
+  public void add(Comment comment) {
+    put(comment);
+  }
+
+  /** Indexes {@code comment} unless it is indexed already. Comment text never changes once stored. */
+  private void put(Comment comment) {
+    List<String> words = words(comment);
+    lock.writeLock().lock();
+    try {
+      if (timeStamps.putIfAbsent(comment.id(), comment.timeStamp()) != null) {
+        return;
+      }
+      for (String word : words) {
+        postings.computeIfAbsent(word, key -> new HashMap<>()).merge(comment.id(), 1, Integer::sum);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Removes every comment from the index. Called when all comments are deleted. */
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      postings.clear();
+      timeStamps.clear();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Removes the comments written at or before {@code deletedBefore}. Must be called holding the write lock. */
+  private void removeUpTo(long deletedBefore) {
+    timeStamps.values().removeIf(timeStamp -> timeStamp <= deletedBefore);
+    removePostings();
+  }
+
+  /** Removes the comments with {@code ids}, which were found deleted when their page was read. */
+  private void remove(Collection<Long> ids) {
+    lock.writeLock().lock();
+    try {
+      timeStamps.keySet().removeAll(ids);
+      removePostings();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Drops the postings of comments no longer indexed. Must be called holding the write lock. */
+  private void removePostings() {
+    postings.values().forEach(commentCounts -> commentCounts.keySet().retainAll(timeStamps.keySet()));
+    postings.values().removeIf(Map::isEmpty);
+  }
+
+  /**
+   * Returns at most {@code limit} comments matching {@code query}, best match first, skipping
+   * the first {@code offset} matches. The next cursor of the page is the offset of the page
+   * after it, if there are more matches. The comments are read with {@code readComments},
+   * which returns the stored comments with the given ids by id. Comments it leaves out were
+   * deleted by another instance, and are dropped from the index before ranking again.
+   */
+  public CommentPage search(String query, int offset, int limit,
+      Function<Collection<Long>, Map<Long, Comment>> readComments) {
+    List<String> queryWords = tokenize(query);
+    if (queryWords.isEmpty()) {
+      return CommentPage.builder().setComments(new ArrayList<>()).build();
+    }
+
+    while (true) {
+      List<Long> rankedIds;
+      lock.readLock().lock();
+      try {
+        // Best score first, newest comment first among equal scores.
+        List<Map.Entry<Long, Double>> ranked = new ArrayList<>(score(queryWords).entrySet());
+        ranked.sort(Map.Entry.<Long, Double>comparingByValue(Comparator.reverseOrder())
+            .thenComparing(entry -> timeStamps.get(entry.getKey()), Comparator.reverseOrder()));
+        rankedIds = new ArrayList<>(ranked.size());
+        for (Map.Entry<Long, Double> entry : ranked) {
+          rankedIds.add(entry.getKey());
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+
+      // Added as longs, since a cursor near the largest int would overflow.
+      int pageEnd = (int) Math.min((long) offset + limit, rankedIds.size());
+      List<Long> pageIds = offset < pageEnd ? rankedIds.subList(offset, pageEnd) : new ArrayList<>();
+      Map<Long, Comment> storedComments = pageIds.isEmpty() ? new HashMap<>() : readComments.apply(pageIds);
+      if (storedComments.size() < pageIds.size()) {
+        List<Long> deletedIds = new ArrayList<>(pageIds);
+        deletedIds.removeAll(storedComments.keySet());
+        remove(deletedIds);
+        continue;
+      }
+
+      List<Comment> page = new ArrayList<>();
+      for (long id : pageIds) {
+        page.add(storedComments.get(id));
+      }
+      CommentPage.Builder pageBuilder = CommentPage.builder().setComments(page);
+      if (pageEnd < rankedIds.size()) {
+        pageBuilder.setNextCursor(Optional.of(String.valueOf(pageEnd)));
+      }
+      return pageBuilder.build();
+    }
+  }
+
+  /**
+   * Returns the score of every comment matching all {@code queryWords}. Each indexed word a
+   * query word is a prefix of adds its count in the comment weighted by how rare the word is.
+   * Must be called holding the read lock.
+   */
+  private Map<Long, Double> score(List<String> queryWords) {
+    Map<Long, Double> scores = null;
+    for (String queryWord : queryWords) {
+      Map<Long, Double> wordScores = new HashMap<>();
+      for (Map<Long, Integer> commentCounts : prefixMatches(queryWord).values()) {
+        double inverseFrequency = Math.log(1 + (double) timeStamps.size() / commentCounts.size());
+        commentCounts.forEach((id, count) -> wordScores.merge(id, count * inverseFrequency, Double::sum));
+      }
+
+      if (scores == null) {
+        scores = wordScores;
+      } else {
+        // Only comments matching every query word so far are kept.
+        scores.keySet().retainAll(wordScores.keySet());
+        scores.replaceAll((id, score) -> score + wordScores.get(id));
+      }
+      if (scores.isEmpty()) {
+        break;
+      }
+    }
+    return scores;
+  }
+
+  /** Returns the postings of every indexed word starting with {@code prefix}. */
+  private NavigableMap<String, Map<Long, Integer>> prefixMatches(String prefix) {
+    return postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+  }
+
+  /** Returns the words of the text and author name of {@code comment}. */
+  private static List<String> words(Comment comment) {
+    List<String> words = tokenize(comment.commentText());
+    words.addAll(tokenize(comment.name()));
+    return words;
+  }
+
+  /** Splits {@code text} into lowercase words made of letters and digits. */
+  private static List<String> tokenize(String text) {
+    List<String> words = new ArrayList<>();
+    int wordStart = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (inWord && wordStart < 0) {
+        wordStart = i;
+      } else if (!inWord && wordStart >= 0) {
+        words.add(text.substring(wordStart, i).toLowerCase(Locale.ROOT));
+        wordStart = -1;
+      }
+    }
+    return words;
+  }
+}
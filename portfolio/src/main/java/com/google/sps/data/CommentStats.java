@@ -0,0 +1,43 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.auto.value.AutoValue;
+import java.util.List;
+
+/**
+ * Stores aggregate statistics about comments. The sentiment histogram splits the -100 to 100
+ * sentiment score range into buckets of equal width, lowest scores first.
+ */
+@AutoValue
+public abstract class CommentStats {
+  public abstract long count();
+  public abstract double averageSentiment();
+  public abstract List<Long> sentimentHistogram();
+
+  /** Returns a Builder for a CommentStats. */
+  public static Builder builder() {
+    return new AutoValue_CommentStats.Builder();
+  }
+
+  /** Builder object for CommentStats. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    public abstract Builder setCount(long count);
+    public abstract Builder setAverageSentiment(double averageSentiment);
+    public abstract Builder setSentimentHistogram(List<Long> sentimentHistogram);
+    public abstract CommentStats build();
+  }
+}
@@ -0,0 +1,176 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Writes and reads a Comment without reflection. A comment without an image leaves out
+ * {@code imageUrl} and {@code imageUrls}. The Blobstore key of the image is never written.
+ */
+public final class CommentTypeAdapter extends TypeAdapter<Comment> {
+  private static final String ID = "id";
+  private static final String NAME = "name";
+  private static final String EMAIL = "email";
+  private static final String IMAGE_URL = "imageUrl";
+  private static final String IMAGE_URLS = "imageUrls";
+  private static final String COMMENT_TEXT = "commentText";
+  private static final String SENTIMENT_SCORE = "sentimentScore";
+  private static final String TIME_STAMP = "timeStamp";
+  // Fields of the object holding the URL of each image size.
+  private static final String THUMBNAIL = "thumbnail";
+  private static final String CARD = "card";
+  private static final String FULL = "full";
+
+  // Every field a comment can be written with.
+  public static final Set<String> FIELDS = Collections.unmodifiableSet(new TreeSet<>(
+      Arrays.asList(ID, NAME, EMAIL, IMAGE_URL, IMAGE_URLS, COMMENT_TEXT, SENTIMENT_SCORE, TIME_STAMP)));
+
+  private final Set<String> fields;
+
+  /** Creates an adapter writing every field. */
+  CommentTypeAdapter() {
+    this(FIELDS);
+  }
+
+  private CommentTypeAdapter(Set<String> fields) {
+    this.fields = fields;
+  }
+
+  /**
+   * Returns an adapter writing only the {@code fields} of each comment, which must be among
+   * {@link #FIELDS}. It still reads every field.
+   */
+  public static CommentTypeAdapter forFields(Set<String> fields) {
+    return new CommentTypeAdapter(fields);
+  }
+
+  @Override
+  public void write(JsonWriter out, Comment comment) throws IOException {
+    if (comment == null) {
+      out.nullValue();
+      return;
+    }
+    out.beginObject();
+    if (fields.contains(ID)) {
+      out.name(ID).value(comment.id());
+    }
+    if (fields.contains(NAME)) {
+      out.name(NAME).value(comment.name());
+    }
+    if (fields.contains(EMAIL)) {
+      out.name(EMAIL).value(comment.email());
+    }
+    if (fields.contains(IMAGE_URL) && comment.imageUrl().isPresent()) {
+      out.name(IMAGE_URL).value(comment.imageUrl().get());
+    }
+    if (fields.contains(IMAGE_URLS) && comment.imageUrls().isPresent()) {
+      out.name(IMAGE_URLS);
+      writeImageUrls(out, comment.imageUrls().get());
+    }
+    if (fields.contains(COMMENT_TEXT)) {
+      out.name(COMMENT_TEXT).value(comment.commentText());
+    }
+    if (fields.contains(SENTIMENT_SCORE)) {
+      out.name(SENTIMENT_SCORE).value(comment.sentimentScore());
+    }
+    if (fields.contains(TIME_STAMP)) {
+      out.name(TIME_STAMP).value(comment.timeStamp());
+    }
+    out.endObject();
+  }
+
+  /** Writes {@code imageUrls} as an object holding the URL of each size. */
+  private static void writeImageUrls(JsonWriter out, ImageUrls imageUrls) throws IOException {
+    out.beginObject();
+    out.name(THUMBNAIL).value(imageUrls.thumbnail());
+    out.name(CARD).value(imageUrls.card());
+    out.name(FULL).value(imageUrls.full());
+    out.endObject();
+  }
+
+  @Override
+  public Comment read(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    Comment.Builder builder = Comment.builder();
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case ID:
+          builder.setId(in.nextLong());
+          break;
+        case NAME:
+          builder.setName(in.nextString());
+          break;
+        case EMAIL:
+          builder.setEmail(in.nextString());
+          break;
+        case IMAGE_URL:
+          builder.setImageUrl(Optional.of(in.nextString()));
+          break;
+        case IMAGE_URLS:
+          builder.setImageUrls(Optional.of(readImageUrls(in)));
+          break;
+        case COMMENT_TEXT:
+          builder.setCommentText(in.nextString());
+          break;
+        case SENTIMENT_SCORE:
+          builder.setSentimentScore(in.nextLong());
+          break;
+        case TIME_STAMP:
+          builder.setTimeStamp(in.nextLong());
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    return builder.build();
+  }
+
+  private static ImageUrls readImageUrls(JsonReader in) throws IOException {
+    ImageUrls.Builder builder = ImageUrls.builder();
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case THUMBNAIL:
+          builder.setThumbnail(in.nextString());
+          break;
+        case CARD:
+          builder.setCard(in.nextString());
+          break;
+        case FULL:
+          builder.setFull(in.nextString());
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    return builder.build();
+  }
+}
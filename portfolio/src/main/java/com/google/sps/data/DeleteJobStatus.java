@@ -0,0 +1,46 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * Stores the progress of the job deleting all comments. The state is RUNNING, DONE or FAILED,
+ * and comments written after the job started are kept.
+ */
+@AutoValue
+public abstract class DeleteJobStatus {
+  public abstract String state();
+  public abstract long deletedComments();
+  public abstract long deletedImages();
+  public abstract long startedAt();
+  public abstract long updatedAt();
+
+  /** Returns a Builder for a DeleteJobStatus. */
+  public static Builder builder() {
+    return new AutoValue_DeleteJobStatus.Builder();
+  }
+
+  /** Builder object for DeleteJobStatus. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    public abstract Builder setState(String state);
+    public abstract Builder setDeletedComments(long deletedComments);
+    public abstract Builder setDeletedImages(long deletedImages);
+    public abstract Builder setStartedAt(long startedAt);
+    public abstract Builder setUpdatedAt(long updatedAt);
+    public abstract DeleteJobStatus build();
+  }
+}
@@ -0,0 +1,62 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * Stores URLs of an uploaded image at the sizes the comments page shows it at. Each URL is the
+ * image's serving URL with a size option, so the resized images are made and cached by the
+ * image service rather than stored separately.
+ */
+@AutoValue
+public abstract class ImageUrls {
+  // Width, in pixels, of each size. The srcset on the comments page describes each URL by width.
+  public static final int THUMBNAIL_WIDTH = 160;
+  public static final int CARD_WIDTH = 480;
+  public static final int FULL_WIDTH = 1600;
+
+  public abstract String thumbnail();
+  public abstract String card();
+  public abstract String full();
+
+  /** Returns the URLs of every size of the image served at {@code servingUrl}. */
+  public static ImageUrls fromServingUrl(String servingUrl) {
+    return builder()
+        .setThumbnail(withWidth(servingUrl, THUMBNAIL_WIDTH))
+        .setCard(withWidth(servingUrl, CARD_WIDTH))
+        .setFull(withWidth(servingUrl, FULL_WIDTH))
+        .build();
+  }
+
+  /** Returns a Builder for an ImageUrls. */
+  public static Builder builder() {
+    return new AutoValue_ImageUrls.Builder();
+  }
+
+  /** Builder object for ImageUrls. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    public abstract Builder setThumbnail(String thumbnail);
+    public abstract Builder setCard(String card);
+    public abstract Builder setFull(String full);
+    public abstract ImageUrls build();
+  }
+
+  /** Returns {@code servingUrl} asking for the image scaled so it is {@code width} pixels wide. */
+  private static String withWidth(String servingUrl, int width) {
+    return servingUrl + "=w" + width;
+  }
+}
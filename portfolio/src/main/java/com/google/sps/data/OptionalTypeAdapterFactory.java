@@ -0,0 +1,69 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Optional;
+
+/** Writes an Optional as its value, or as null when it is empty, so it reads like a plain field. */
+final class OptionalTypeAdapterFactory implements TypeAdapterFactory {
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+    if (typeToken.getRawType() != Optional.class) {
+      return null;
+    }
+    Type valueType = typeToken.getType() instanceof ParameterizedType
+        ? ((ParameterizedType) typeToken.getType()).getActualTypeArguments()[0]
+        : Object.class;
+    return (TypeAdapter<T>) new OptionalTypeAdapter<>(gson.getAdapter(TypeToken.get(valueType)));
+  }
+
+  private static class OptionalTypeAdapter<V> extends TypeAdapter<Optional<V>> {
+    private final TypeAdapter<V> valueAdapter;
+
+    private OptionalTypeAdapter(TypeAdapter<V> valueAdapter) {
+      this.valueAdapter = valueAdapter;
+    }
+
+    @Override
+    public void write(JsonWriter out, Optional<V> optional) throws IOException {
+      if (optional == null || !optional.isPresent()) {
+        out.nullValue();
+      } else {
+        valueAdapter.write(out, optional.get());
+      }
+    }
+
+    @Override
+    public Optional<V> read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return Optional.empty();
+      }
+      return Optional.ofNullable(valueAdapter.read(in));
+    }
+  }
+}
@@ -0,0 +1,39 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Holds the Gson instance every servlet serializes with. Gson is thread-safe and caches the
+ * adapter of each type it has seen, so sharing one keeps that work to the first request.
+ * Comments and users are written by hand-written adapters rather than by reflection, and every
+ * Optional is written as its value, or left out when empty.
+ */
+public final class SharedGson {
+  private static final Gson INSTANCE = new GsonBuilder()
+      .registerTypeHierarchyAdapter(Comment.class, new CommentTypeAdapter())
+      .registerTypeHierarchyAdapter(User.class, new UserTypeAdapter())
+      .registerTypeAdapterFactory(new OptionalTypeAdapterFactory())
+      .create();
+
+  private SharedGson() {}
+
+  /** Returns the Gson instance shared by every servlet. */
+  public static Gson getInstance() {
+    return INSTANCE;
+  }
+}
@@ -0,0 +1,73 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.Optional;
+
+/** Writes and reads a User without reflection. Empty URLs are left out. */
+final class UserTypeAdapter extends TypeAdapter<User> {
+  private static final String LOGGED_IN = "loggedIn";
+  private static final String LOGIN_URL = "loginUrl";
+  private static final String LOGOUT_URL = "logoutUrl";
+
+  @Override
+  public void write(JsonWriter out, User user) throws IOException {
+    if (user == null) {
+      out.nullValue();
+      return;
+    }
+    out.beginObject();
+    out.name(LOGGED_IN).value(user.loggedIn());
+    if (user.loginUrl().isPresent()) {
+      out.name(LOGIN_URL).value(user.loginUrl().get());
+    }
+    if (user.logoutUrl().isPresent()) {
+      out.name(LOGOUT_URL).value(user.logoutUrl().get());
+    }
+    out.endObject();
+  }
+
+  @Override
+  public User read(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    User.Builder builder = User.builder();
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case LOGGED_IN:
+          builder.setLoggedIn(in.nextBoolean());
+          break;
+        case LOGIN_URL:
+          builder.setLoginUrl(Optional.of(in.nextString()));
+          break;
+        case LOGOUT_URL:
+          builder.setLogoutUrl(Optional.of(in.nextString()));
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    return builder.build();
+  }
+}
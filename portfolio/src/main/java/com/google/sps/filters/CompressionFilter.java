@@ -0,0 +1,276 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.filters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Filter that gzips JSON responses for clients that accept it. Responses smaller than
+ * {@code MIN_COMPRESSED_SIZE} are sent as they are, since compressing them costs more than it saves.
+ * Requests that may go async are passed through untouched, since their responses outlive the filter.
+ */
+@WebFilter(urlPatterns = {"/data", "/data/search", "/user-login"}, asyncSupported = true)
+public class CompressionFilter implements Filter {
+  private static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+  private static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+  private static final String VARY_HEADER = "Vary";
+  private static final String GZIP = "gzip";
+
+  // Responses are only compressed once they grow past this many bytes.
+  private static final int MIN_COMPRESSED_SIZE = 1024;
+  // Size of the buffer compressed bytes are written through.
+  private static final int DEFLATE_BUFFER_SIZE = 8192;
+
+  // Fixed gzip header: magic number, deflate method, no flags, no time, no extra flags, unknown OS.
+  private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+  // Deflaters hold native memory and are slow to create, so each request thread keeps one.
+  private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(
+      () -> new Deflater(Deflater.DEFAULT_COMPRESSION, /* nowrap= */ true));
+
+  @Override
+  public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+      throws IOException, ServletException {
+    HttpServletRequest request = (HttpServletRequest) servletRequest;
+    HttpServletResponse response = (HttpServletResponse) servletResponse;
+    response.addHeader(VARY_HEADER, ACCEPT_ENCODING_HEADER);
+
+    if (request.isAsyncSupported() || !acceptsGzip(request.getHeader(ACCEPT_ENCODING_HEADER))) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    CompressingResponse compressingResponse = new CompressingResponse(response);
+    try {
+      chain.doFilter(request, compressingResponse);
+    } finally {
+      // Ends the gzip stream even when the servlet throws, so the client never gets a truncated one.
+      compressingResponse.finish();
+    }
+  }
+
+  /** Returns whether the {@code acceptEncoding} header lists gzip without a zero quality. */
+  private static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String encoding : acceptEncoding.split(",")) {
+      String[] parameters = encoding.split(";");
+      if (!parameters[0].trim().equalsIgnoreCase(GZIP)) {
+        continue;
+      }
+      for (int i = 1; i < parameters.length; i++) {
+        String parameter = parameters[i].trim();
+        if (parameter.startsWith("q=") && isZeroQuality(parameter.substring(2))) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /** Returns whether the {@code quality} value of an encoding rules it out. */
+  private static boolean isZeroQuality(String quality) {
+    try {
+      return Double.parseDouble(quality) == 0;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /** Response that hands out a compressing stream in place of the servlet's own. */
+  private static class CompressingResponse extends HttpServletResponseWrapper {
+    private final HttpServletResponse response;
+    private CompressingOutputStream outputStream;
+    private PrintWriter writer;
+
+    private CompressingResponse(HttpServletResponse response) {
+      super(response);
+      this.response = response;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+      if (writer != null) {
+        throw new IllegalStateException("getWriter() has already been called.");
+      }
+      return getCompressingOutputStream();
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      if (writer == null) {
+        if (outputStream != null) {
+          throw new IllegalStateException("getOutputStream() has already been called.");
+        }
+        String charset = getCharacterEncoding() != null ? getCharacterEncoding() : StandardCharsets.ISO_8859_1.name();
+        writer = new PrintWriter(new OutputStreamWriter(getCompressingOutputStream(), charset));
+      }
+      return writer;
+    }
+
+    // The compressed length isn't known up front, so content lengths set by servlets are dropped.
+    @Override
+    public void setContentLength(int length) {}
+
+    @Override
+    public void setContentLengthLong(long length) {}
+
+    @Override
+    public void flushBuffer() throws IOException {
+      if (writer != null) {
+        writer.flush();
+      } else if (outputStream != null) {
+        outputStream.flush();
+      }
+    }
+
+    private CompressingOutputStream getCompressingOutputStream() throws IOException {
+      if (outputStream == null) {
+        outputStream = new CompressingOutputStream(response);
+      }
+      return outputStream;
+    }
+
+    /** Writes out whatever the servlet left buffered and ends the compressed stream. */
+    private void finish() throws IOException {
+      if (writer != null) {
+        writer.flush();
+      }
+      if (outputStream != null) {
+        outputStream.finish();
+      }
+    }
+  }
+
+  /**
+   * Stream that holds back the first {@code MIN_COMPRESSED_SIZE} bytes. If the response grows
+   * past them it switches to gzip, otherwise the held back bytes are sent as they are.
+   */
+  private static class CompressingOutputStream extends ServletOutputStream {
+    private final HttpServletResponse response;
+    private final ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream(MIN_COMPRESSED_SIZE);
+    private final CRC32 checksum = new CRC32();
+    private ServletOutputStream responseStream;
+    private Deflater deflater;
+    private DeflaterOutputStream deflaterStream;
+    private long uncompressedSize = 0;
+
+    private CompressingOutputStream(HttpServletResponse response) {
+      this.response = response;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      if (deflaterStream == null) {
+        if (pendingBytes.size() + length < MIN_COMPRESSED_SIZE) {
+          pendingBytes.write(bytes, offset, length);
+          return;
+        }
+        startCompressing();
+      }
+      checksum.update(bytes, offset, length);
+      uncompressedSize += length;
+      deflaterStream.write(bytes, offset, length);
+    }
+
+    // Flushing while bytes are held back would commit the response before it can be compressed.
+    @Override
+    public void flush() throws IOException {
+      if (deflaterStream != null) {
+        deflaterStream.flush();
+      }
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    // Only synchronous requests are compressed, and the servlet spec rejects write listeners on those.
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      throw new IllegalStateException("Write listeners need an async request, which isn't compressed.");
+    }
+
+    private void startCompressing() throws IOException {
+      response.setHeader(CONTENT_ENCODING_HEADER, GZIP);
+      responseStream = response.getOutputStream();
+      responseStream.write(GZIP_HEADER);
+
+      deflater = DEFLATERS.get();
+      deflater.reset();
+      deflaterStream = new DeflaterOutputStream(responseStream, deflater, DEFLATE_BUFFER_SIZE);
+
+      byte[] heldBackBytes = pendingBytes.toByteArray();
+      pendingBytes.reset();
+      checksum.update(heldBackBytes, 0, heldBackBytes.length);
+      uncompressedSize += heldBackBytes.length;
+      deflaterStream.write(heldBackBytes);
+    }
+
+    /** Sends the held back bytes uncompressed, or ends the gzip stream with its trailer. */
+    private void finish() throws IOException {
+      if (deflaterStream == null) {
+        if (pendingBytes.size() > 0) {
+          pendingBytes.writeTo(response.getOutputStream());
+        }
+        return;
+      }
+
+      try {
+        deflaterStream.finish();
+        writeIntLittleEndian(responseStream, (int) checksum.getValue());
+        writeIntLittleEndian(responseStream, (int) uncompressedSize);
+        responseStream.flush();
+      } finally {
+        // The deflater belongs to the thread, so it is reset rather than ended.
+        deflater.reset();
+      }
+    }
+
+    private static void writeIntLittleEndian(OutputStream out, int value) throws IOException {
+      out.write(value & 0xff);
+      out.write((value >> 8) & 0xff);
+      out.write((value >> 16) & 0xff);
+      out.write((value >> 24) & 0xff);
+    }
+  }
+}
@@ -14,23 +14,22 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.blobstore.BlobstoreService;
-import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Servlet that creates and responds with a Blobstore upload URL. */
+/** Servlet that responds with a Blobstore upload URL from this instance's pool. */
 @WebServlet("/blobstore-upload-url")
 public class BlobstoreUploadUrlServlet extends HttpServlet {
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
-    String uploadUrl = blobstoreService.createUploadUrl("/data");
+    String uploadUrl = UploadUrlPool.getInstance().take();
 
+    // Each upload URL works for a single upload, so it must not be reused from a cache.
+    response.setHeader("Cache-Control", "no-store");
     response.setContentType("text/html");
     response.getWriter().println(uploadUrl);
   }
@@ -0,0 +1,291 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.SharedGson;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * JsonWriter that writes CBOR (RFC 8949) instead of JSON text, so anything written through a
+ * JsonWriter, including Gson type adapters, can also be sent in the smaller binary encoding.
+ * Arrays and objects are written with indefinite lengths, so they can be streamed without
+ * knowing their size up front. Like JsonWriter, a name followed by a null is left out unless
+ * nulls are serialized, and writing out of order, such as a name outside an object or an end
+ * that doesn't match its begin, throws IllegalStateException.
+ */
+final class CborWriter extends JsonWriter {
+  // Major types, in the top three bits of the first byte of each item.
+  private static final int UNSIGNED_INTEGER = 0;
+  private static final int NEGATIVE_INTEGER = 1 << 5;
+  private static final int TEXT_STRING = 3 << 5;
+  // Single byte items.
+  private static final int INDEFINITE_ARRAY = 0x9f;
+  private static final int INDEFINITE_MAP = 0xbf;
+  private static final int BREAK = 0xff;
+  private static final int FALSE = 0xf4;
+  private static final int TRUE = 0xf5;
+  private static final int NULL = 0xf6;
+  private static final int DOUBLE = 0xfb;
+
+  private final OutputStream out;
+  // Arrays and objects begun but not yet ended, innermost first.
+  private final Deque<Scope> scopes = new ArrayDeque<>();
+  // Whether the top-level value has been started. Only one is allowed, as in JSON.
+  private boolean startedDocument;
+  // Name waiting for its value, held back in case the value is a null that is left out.
+  private String pendingName;
+
+  CborWriter(OutputStream out) {
+    super(new NullWriter());
+    this.out = out;
+  }
+
+  @Override
+  public CborWriter beginArray() throws IOException {
+    beforeValue();
+    scopes.push(Scope.ARRAY);
+    out.write(INDEFINITE_ARRAY);
+    return this;
+  }
+
+  @Override
+  public CborWriter endArray() throws IOException {
+    end(Scope.ARRAY);
+    return this;
+  }
+
+  @Override
+  public CborWriter beginObject() throws IOException {
+    beforeValue();
+    scopes.push(Scope.OBJECT);
+    out.write(INDEFINITE_MAP);
+    return this;
+  }
+
+  @Override
+  public CborWriter endObject() throws IOException {
+    end(Scope.OBJECT);
+    return this;
+  }
+
+  @Override
+  public CborWriter name(String name) throws IOException {
+    if (name == null) {
+      throw new NullPointerException("name == null");
+    }
+    if (scopes.peek() != Scope.OBJECT || pendingName != null) {
+      throw new IllegalStateException("Nesting problem: name " + name + " is not inside an object.");
+    }
+    pendingName = name;
+    return this;
+  }
+
+  @Override
+  public CborWriter value(String value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    beforeValue();
+    writeText(value);
+    return this;
+  }
+
+  /** Writes the JSON text {@code value} as the CBOR items it stands for. */
+  @Override
+  public CborWriter jsonValue(String value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    JsonElement element = JsonParser.parseString(value);
+    TypeAdapter<JsonElement> adapter = SharedGson.getInstance().getAdapter(JsonElement.class);
+    // Nulls inside raw JSON are part of its text, so they are kept like the rest of it.
+    boolean serializeNulls = getSerializeNulls();
+    setSerializeNulls(true);
+    try {
+      adapter.write(this, element);
+    } finally {
+      setSerializeNulls(serializeNulls);
+    }
+    return this;
+  }
+
+  @Override
+  public CborWriter nullValue() throws IOException {
+    if (pendingName != null && !getSerializeNulls()) {
+      pendingName = null;
+      return this;
+    }
+    beforeValue();
+    out.write(NULL);
+    return this;
+  }
+
+  @Override
+  public CborWriter value(boolean value) throws IOException {
+    beforeValue();
+    out.write(value ? TRUE : FALSE);
+    return this;
+  }
+
+  @Override
+  public CborWriter value(Boolean value) throws IOException {
+    return value == null ? nullValue() : value(value.booleanValue());
+  }
+
+  @Override
+  public CborWriter value(double value) throws IOException {
+    beforeValue();
+    out.write(DOUBLE);
+    long bits = Double.doubleToLongBits(value);
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      out.write((int) (bits >>> shift));
+    }
+    return this;
+  }
+
+  @Override
+  public CborWriter value(long value) throws IOException {
+    beforeValue();
+    if (value >= 0) {
+      writeHead(UNSIGNED_INTEGER, value);
+    } else {
+      writeHead(NEGATIVE_INTEGER, -1 - value);
+    }
+    return this;
+  }
+
+  @Override
+  public CborWriter value(Number value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    // Whole numbers, including those parsed from raw JSON, are written as integers.
+    if (!(value instanceof Double || value instanceof Float)) {
+      try {
+        return value(Long.parseLong(value.toString()));
+      } catch (NumberFormatException e) {
+        // Not a whole number that fits in a long.
+      }
+    }
+    return value(value.doubleValue());
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  /** Closes the output stream. Throws if an array or object was left open. */
+  @Override
+  public void close() throws IOException {
+    out.close();
+    if (!scopes.isEmpty()) {
+      throw new IllegalStateException("Incomplete document: " + scopes.size() + " arrays or objects left open.");
+    }
+  }
+
+  /**
+   * Checks that a value may be written here and writes its name first if it is inside an
+   * object.
+   */
+  private void beforeValue() throws IOException {
+    Scope scope = scopes.peek();
+    if (scope == null) {
+      if (startedDocument) {
+        throw new IllegalStateException("Only one top-level value may be written.");
+      }
+      startedDocument = true;
+    } else if (scope == Scope.OBJECT) {
+      if (pendingName == null) {
+        throw new IllegalStateException("Nesting problem: a value inside an object needs a name.");
+      }
+      writeText(pendingName);
+      pendingName = null;
+    }
+  }
+
+  /** Ends the innermost array or object, which must be of type {@code scope}. */
+  private void end(Scope scope) throws IOException {
+    if (scopes.peek() != scope) {
+      throw new IllegalStateException("Nesting problem: the innermost scope is not " + scope + ".");
+    }
+    if (pendingName != null) {
+      throw new IllegalStateException("Dangling name: " + pendingName);
+    }
+    scopes.pop();
+    out.write(BREAK);
+  }
+
+  private void writeText(String text) throws IOException {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    writeHead(TEXT_STRING, bytes.length);
+    out.write(bytes);
+  }
+
+  /** Writes the first bytes of an item: its major type and its value or length in as few bytes as fit. */
+  private void writeHead(int majorType, long value) throws IOException {
+    if (value < 24) {
+      out.write(majorType | (int) value);
+    } else if (value < 1L << 8) {
+      out.write(majorType | 24);
+      out.write((int) value);
+    } else if (value < 1L << 16) {
+      out.write(majorType | 25);
+      writeBigEndian(value, 2);
+    } else if (value < 1L << 32) {
+      out.write(majorType | 26);
+      writeBigEndian(value, 4);
+    } else {
+      out.write(majorType | 27);
+      writeBigEndian(value, 8);
+    }
+  }
+
+  private void writeBigEndian(long value, int byteCount) throws IOException {
+    for (int shift = (byteCount - 1) * 8; shift >= 0; shift -= 8) {
+      out.write((int) (value >>> shift));
+    }
+  }
+
+  /** Kind of item an array or object scope holds. */
+  private enum Scope {
+    ARRAY,
+    OBJECT
+  }
+
+  /**
+   * Writer handed to JsonWriter, which requires one. JsonWriter never writes to it, since every
+   * writing method is overridden, so it discards anything it is given.
+   */
+  private static class NullWriter extends Writer {
+    @Override
+    public void write(char[] chars, int offset, int length) {}
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  }
+}
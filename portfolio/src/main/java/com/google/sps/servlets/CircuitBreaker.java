@@ -0,0 +1,86 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calls to a failing service for a while so callers fail fast instead of waiting on it.
+ * After {@code failureThreshold} failures in a row the breaker opens and refuses every call for
+ * {@code openMillis}. It then lets a single trial call through, closing again if it succeeds
+ * and staying open for another period if it fails.
+ */
+final class CircuitBreaker {
+  /** Whether calls are let through. */
+  enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final int failureThreshold;
+  private final long openMillis;
+  // Current time in milliseconds.
+  private final LongSupplier clock;
+  private State state = State.CLOSED;
+  private int consecutiveFailures = 0;
+  private long openedAt = 0;
+
+  CircuitBreaker(int failureThreshold, long openMillis) {
+    this(failureThreshold, openMillis, System::currentTimeMillis);
+  }
+
+  /** Creates a breaker timing its open periods with {@code clock}, for tests. */
+  CircuitBreaker(int failureThreshold, long openMillis, LongSupplier clock) {
+    this.failureThreshold = failureThreshold;
+    this.openMillis = openMillis;
+    this.clock = clock;
+  }
+
+  /**
+   * Returns whether a call may be made now. Every call let through must be followed by
+   * {@link #recordSuccess} or {@link #recordFailure}.
+   */
+  synchronized boolean allowRequest() {
+    switch (state) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        if (clock.getAsLong() - openedAt < openMillis) {
+          return false;
+        }
+        state = State.HALF_OPEN;
+        return true;
+      default:
+        // A trial call is already in flight.
+        return false;
+    }
+  }
+
+  synchronized void recordSuccess() {
+    consecutiveFailures = 0;
+    state = State.CLOSED;
+  }
+
+  synchronized void recordFailure() {
+    consecutiveFailures++;
+    if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+      state = State.OPEN;
+      openedAt = clock.getAsLong();
+    }
+  }
+
+  synchronized State getState() {
+    return state;
+  }
+}
@@ -0,0 +1,76 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Scores sentiment with the Cloud Natural Language API. Texts scored before are answered from
+ * the {@link SentimentCache}, the rest are sent through the {@link SentimentBatcher}, together
+ * when they come as a batch.
+ */
+final class CloudSentimentEngine implements SentimentEngine {
+
+  @Override
+  public long score(String text) {
+    SentimentCache sentimentCache = SentimentCache.getInstance();
+    Optional<Long> cachedScore = sentimentCache.get(text);
+    if (cachedScore.isPresent()) {
+      return cachedScore.get();
+    }
+
+    long sentimentScore = SentimentBatcher.getInstance().score(text);
+    sentimentCache.put(text, sentimentScore);
+    return sentimentScore;
+  }
+
+  @Override
+  public Map<String, Long> scoreAll(Collection<String> texts) {
+    SentimentCache sentimentCache = SentimentCache.getInstance();
+    Map<String, Long> scores = new HashMap<>();
+    List<String> uncachedTexts = new ArrayList<>();
+    for (String text : texts) {
+      Optional<Long> cachedScore = sentimentCache.get(text);
+      if (cachedScore.isPresent()) {
+        scores.put(text, cachedScore.get());
+      } else {
+        uncachedTexts.add(text);
+      }
+    }
+
+    if (!uncachedTexts.isEmpty()) {
+      Map<String, Long> newScores = SentimentBatcher.getInstance().scoreAll(uncachedTexts);
+      newScores.forEach(sentimentCache::put);
+      scores.putAll(newScores);
+    }
+    return scores;
+  }
+
+  @Override
+  public Map<String, Object> getMetrics() {
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    metrics.put("engine", CLOUD_ENGINE);
+    metrics.putAll(LanguageClientHolder.getInstance().getMetrics());
+    metrics.putAll(SentimentBatcher.getInstance().getMetrics());
+    metrics.putAll(SentimentCache.getInstance().getMetrics());
+    return metrics;
+  }
+}
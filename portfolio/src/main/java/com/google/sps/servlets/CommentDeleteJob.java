@@ -0,0 +1,257 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentCache;
+import com.google.sps.data.CommentPage;
+import com.google.sps.data.CommentSearchIndex;
+import com.google.sps.data.DeleteJobStatus;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+/**
+ * Deletes every comment in push tasks, along with the images they reference, so a request
+ * asking for it returns right away. The job walks the comments in the
+ * {@link CommentRepository} written up to its start a page at a time. Each page is one task
+ * carrying the job's start time and cursor, and the {@code CommentDeleteJob} entity checkpoints
+ * the cursor and counts after each page, adding the task for the next page in the same
+ * transaction. Failed pages are retried by the queue, and a job whose tasks gave up picks up
+ * from its last checkpoint when it is started again.
+ */
+final class CommentDeleteJob {
+  private static final Logger logger = Logger.getLogger(CommentDeleteJob.class.getName());
+
+  // There is a single job, stored under a fixed name.
+  private static final String DELETE_JOB = "CommentDeleteJob";
+  private static final String DELETE_JOB_NAME = "current";
+  private static final String STATE = "state";
+  private static final String CURSOR = "cursor";
+  private static final String DELETED_COMMENTS = "deletedComments";
+  private static final String DELETED_IMAGES = "deletedImages";
+  private static final String STARTED_AT = "startedAt";
+  private static final String UPDATED_AT = "updatedAt";
+
+  private static final String RUNNING = "RUNNING";
+  private static final String DONE = "DONE";
+  // Reported for a running job that stopped checkpointing. It is never stored.
+  private static final String FAILED = "FAILED";
+
+  // Push queue page tasks are added to, set up in queue.xml.
+  private static final String QUEUE_NAME = "comment-delete";
+  // Path of the servlet running page tasks, and the parameters of a task.
+  static final String PAGE_URL = "/tasks/delete-comments";
+  static final String STARTED_AT_PARAMETER = "startedAt";
+  static final String CURSOR_PARAMETER = "cursor";
+
+  // Comments read per checkpoint.
+  private static final int PAGE_SIZE = 2000;
+  // A running job that hasn't checkpointed for this long has run out of task retries. Longer
+  // than the task-age-limit of the queue, so no task of the job can still run once it is resumed.
+  private static final long ABANDONED_AFTER_MILLIS = 15 * 60 * 1000;
+
+  private static final CommentDeleteJob INSTANCE = new CommentDeleteJob();
+
+  private final Key jobKey = KeyFactory.createKey(DELETE_JOB, DELETE_JOB_NAME);
+
+  private CommentDeleteJob() {}
+
+  /** Returns the job shared by every servlet in this instance. */
+  static CommentDeleteJob getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Starts deleting every comment and returns the status of the job. A job that is already
+   * running is left to finish, and one that was abandoned is resumed.
+   */
+  DeleteJobStatus requestDeletion() {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    long now = System.currentTimeMillis();
+    Entity jobEntity;
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      try {
+        jobEntity = datastore.get(transaction, jobKey);
+      } catch (EntityNotFoundException e) {
+        jobEntity = null;
+      }
+
+      if (jobEntity != null && jobEntity.getProperty(STATE).equals(RUNNING) && !isAbandoned(jobEntity, now)) {
+        return toStatus(jobEntity);
+      }
+      if (jobEntity == null || jobEntity.getProperty(STATE).equals(DONE)) {
+        jobEntity = new Entity(jobKey);
+        jobEntity.setProperty(STARTED_AT, now);
+        jobEntity.setUnindexedProperty(CURSOR, "");
+        jobEntity.setProperty(DELETED_COMMENTS, 0L);
+        jobEntity.setProperty(DELETED_IMAGES, 0L);
+      }
+      jobEntity.setProperty(STATE, RUNNING);
+      jobEntity.setProperty(UPDATED_AT, now);
+      datastore.put(transaction, jobEntity);
+      addPageTask(transaction, jobEntity);
+      transaction.commit();
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+    return toStatus(jobEntity);
+  }
+
+  /** Returns the status of the latest job, or an empty optional if comments were never deleted. */
+  Optional<DeleteJobStatus> getStatus() {
+    try {
+      return Optional.of(toStatus(DatastoreServiceFactory.getDatastoreService().get(jobKey)));
+    } catch (EntityNotFoundException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Deletes the page of the job started at {@code startedAt} beginning at {@code cursor}, and
+   * checkpoints past it. Tasks left over from an older job, or for a page already checkpointed
+   * by a retried task, are dropped.
+   */
+  void runPage(long startedAt, String cursor) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    if (!isCurrentPage(getJobEntity(datastore, /* transaction= */ null), startedAt, cursor)) {
+      logger.info("Dropping stale delete task for the job started at " + startedAt + ".");
+      return;
+    }
+
+    CommentPage page = deletePage(startedAt, cursor);
+    if (!page.nextCursor().isPresent()) {
+      finish(startedAt);
+    }
+
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      Entity jobEntity = getJobEntity(datastore, transaction);
+      if (!isCurrentPage(jobEntity, startedAt, cursor)) {
+        return;
+      }
+      jobEntity.setUnindexedProperty(CURSOR, page.nextCursor().orElse(""));
+      jobEntity.setProperty(DELETED_COMMENTS, (long) jobEntity.getProperty(DELETED_COMMENTS) + page.comments().size());
+      jobEntity.setProperty(DELETED_IMAGES, (long) jobEntity.getProperty(DELETED_IMAGES) + countImages(page));
+      jobEntity.setProperty(UPDATED_AT, System.currentTimeMillis());
+      if (page.nextCursor().isPresent()) {
+        addPageTask(transaction, jobEntity);
+      } else {
+        jobEntity.setProperty(STATE, DONE);
+      }
+      datastore.put(transaction, jobEntity);
+      transaction.commit();
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+    CommentCache.getInstance().invalidate();
+  }
+
+  /** Returns the job entity read in {@code transaction}, or outside one if it is null. */
+  private Entity getJobEntity(DatastoreService datastore, Transaction transaction) {
+    try {
+      return datastore.get(transaction, jobKey);
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  /** Returns whether {@code jobEntity} is running and checkpointed at {@code cursor}. */
+  private static boolean isCurrentPage(Entity jobEntity, long startedAt, String cursor) {
+    return jobEntity != null && jobEntity.getProperty(STATE).equals(RUNNING)
+        && (long) jobEntity.getProperty(STARTED_AT) == startedAt && jobEntity.getProperty(CURSOR).equals(cursor);
+  }
+
+  /** Adds the task deleting the page {@code jobEntity} is checkpointed at, once {@code transaction} commits. */
+  private static void addPageTask(Transaction transaction, Entity jobEntity) {
+    TaskOptions task = TaskOptions.Builder.withUrl(PAGE_URL)
+        .param(STARTED_AT_PARAMETER, String.valueOf(jobEntity.getProperty(STARTED_AT)))
+        .param(CURSOR_PARAMETER, (String) jobEntity.getProperty(CURSOR));
+    QueueFactory.getQueue(QUEUE_NAME).add(transaction, task);
+  }
+
+  /**
+   * Deletes the page of comments written up to {@code startedAt} beginning at {@code cursor},
+   * along with their images, and returns it.
+   */
+  private CommentPage deletePage(long startedAt, String cursor) {
+    CommentRepository repository = CommentRepository.getInstance();
+    CommentPage page =
+        repository.listUpTo(startedAt, cursor.isEmpty() ? Optional.empty() : Optional.of(cursor), PAGE_SIZE);
+    List<Long> commentIds = new ArrayList<>();
+    List<BlobKey> imageKeys = new ArrayList<>();
+    for (Comment comment : page.comments()) {
+      commentIds.add(comment.id());
+      // Comments written before image keys were stored are left to the orphaned image sweep.
+      if (comment.imageBlobKey().isPresent()) {
+        imageKeys.add(new BlobKey(comment.imageBlobKey().get()));
+      }
+    }
+
+    // Comments go first, so a job that stops between the two calls leaves orphaned images for
+    // the OrphanedImageSweeper rather than comments pointing at deleted images.
+    repository.deleteAll(commentIds);
+    CommentStatsCounter.getInstance().recordDeletion(page.comments());
+    if (!imageKeys.isEmpty()) {
+      BlobstoreServiceFactory.getBlobstoreService().delete(imageKeys.toArray(new BlobKey[0]));
+    }
+    return page;
+  }
+
+  private static long countImages(CommentPage page) {
+    return page.comments().stream().filter(comment -> comment.imageBlobKey().isPresent()).count();
+  }
+
+  /** Records the deletion for clients and clears what this instance keeps about comments. */
+  private void finish(long startedAt) {
+    CommentRepository.getInstance().recordDeletion(startedAt);
+    CommentSearchIndex.getInstance().clear();
+  }
+
+  private static boolean isAbandoned(Entity jobEntity, long now) {
+    return now - (long) jobEntity.getProperty(UPDATED_AT) >= ABANDONED_AFTER_MILLIS;
+  }
+
+  private static DeleteJobStatus toStatus(Entity jobEntity) {
+    String state = (String) jobEntity.getProperty(STATE);
+    if (state.equals(RUNNING) && isAbandoned(jobEntity, System.currentTimeMillis())) {
+      state = FAILED;
+    }
+    return DeleteJobStatus.builder()
+        .setState(state)
+        .setDeletedComments((long) jobEntity.getProperty(DELETED_COMMENTS))
+        .setDeletedImages((long) jobEntity.getProperty(DELETED_IMAGES))
+        .setStartedAt((long) jobEntity.getProperty(STARTED_AT))
+        .setUpdatedAt((long) jobEntity.getProperty(UPDATED_AT))
+        .build();
+  }
+}
@@ -0,0 +1,50 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet running the push tasks that delete one page of comments for the
+ * {@link CommentDeleteJob}. A page that fails throws, so the queue tries it again.
+ */
+@WebServlet(CommentDeleteJob.PAGE_URL)
+public class CommentDeleteTaskServlet extends HttpServlet {
+  private static final Logger logger = Logger.getLogger(CommentDeleteTaskServlet.class.getName());
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!TaskRequests.isFromQueue(request)) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN, "Only the task queue may delete pages.");
+      return;
+    }
+
+    long startedAt;
+    try {
+      startedAt = Long.parseLong(request.getParameter(CommentDeleteJob.STARTED_AT_PARAMETER));
+    } catch (NumberFormatException e) {
+      // Retrying can't fix the task, so it is answered as done.
+      logger.warning("Dropping delete task without a valid start time.");
+      return;
+    }
+    String cursor = request.getParameter(CommentDeleteJob.CURSOR_PARAMETER);
+    CommentDeleteJob.getInstance().runPage(startedAt, cursor != null ? cursor : "");
+  }
+}
@@ -0,0 +1,142 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentPage;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Stores comments. Every read and write of comments goes through a repository, so the app can
+ * run against Datastore or against a local stand-in, for example to measure throughput without
+ * the network. Comments are read back oldest first, ties broken by id.
+ */
+interface CommentRepository {
+  // System property naming the repository to use, set in appengine-web.xml.
+  String REPOSITORY_PROPERTY = "comments.repository";
+  // Repository storing comments in Datastore. Used when the property isn't set.
+  String DATASTORE_REPOSITORY = "datastore";
+  // Repository keeping comments in memory, lost when the instance stops.
+  String MEMORY_REPOSITORY = "memory";
+  // Repository keeping comments in memory and journaling every change to a local file.
+  String FILE_REPOSITORY = "file";
+  // System property naming the file journaled to by the file repository.
+  String FILE_PROPERTY = "comments.repository.file";
+  // File journaled to when the file property isn't set.
+  String DEFAULT_FILE = "comments.jsonl";
+
+  /**
+   * Stores {@code comments} with pending, neutral sentiment scores and returns them with the
+   * ids they were stored under, in the same order. The ids of {@code comments} are ignored.
+   */
+  List<Comment> addAll(List<Comment> comments);
+
+  /** Returns the stored comments with {@code ids} by id, leaving out ones that don't exist. */
+  Map<Long, Comment> getAll(Collection<Long> ids);
+
+  /** Returns the stored comment with {@code id}, or an empty optional if it doesn't exist. */
+  default Optional<Comment> get(long id) {
+    return Optional.ofNullable(getAll(Collections.singleton(id)).get(id));
+  }
+
+  /**
+   * Returns up to {@code limit} comments starting at {@code startCursor}, or at the oldest
+   * comment if it is missing. If {@code since} is given, only comments written at or after it
+   * are returned. Only the comment {@code fields} listed need to be filled in, others may be left empty.
+   * @throws IllegalArgumentException if {@code startCursor} wasn't returned by this repository.
+   */
+  PageIterator list(Optional<Long> since, Optional<String> startCursor, int limit, Set<String> fields);
+
+  /**
+   * Returns up to {@code limit} comments written at or before {@code upTo}, starting at
+   * {@code startCursor}. The next cursor is only set if more comments may follow.
+   * @throws IllegalArgumentException if {@code startCursor} wasn't returned by this repository.
+   */
+  CommentPage listUpTo(long upTo, Optional<String> startCursor, int limit);
+
+  /** Calls {@code action} with every stored comment, in no particular order. */
+  void forEach(Consumer<Comment> action);
+
+  /** Deletes the comments with {@code ids}. Ids that don't exist are skipped. */
+  void deleteAll(Collection<Long> ids);
+
+  /**
+   * Stores the Blobstore key of the image of each comment in {@code imageBlobKeys}, keyed by
+   * comment id, for comments written before keys were stored. Ids that don't exist are skipped.
+   */
+  void setImageBlobKeys(Map<Long, String> imageBlobKeys);
+
+  /**
+   * Stores {@code sentimentScore} for the comment with {@code id} if its score is still pending
+   * and returns the scored comment. Returns an empty optional if the comment was scored
+   * already or doesn't exist.
+   */
+  Optional<Comment> completeSentiment(long id, long sentimentScore);
+
+  /** Returns the ids of up to {@code limit} comments written before {@code writtenBefore} whose score is pending. */
+  List<Long> findPendingSentiment(long writtenBefore, int limit);
+
+  /** Records that every comment written up to {@code deletedBefore} was deleted. */
+  void recordDeletion(long deletedBefore);
+
+  /**
+   * Returns the time of the latest deletion recorded after {@code since}, or an empty optional
+   * if there was none.
+   */
+  Optional<Long> getDeletedSince(long since);
+
+  /** Returns the repository shared by every servlet in this instance. */
+  static CommentRepository getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /** Returns the repository named by the {@code comments.repository} system property. */
+  static CommentRepository fromConfig() {
+    String repositoryName = System.getProperty(REPOSITORY_PROPERTY, DATASTORE_REPOSITORY);
+    switch (repositoryName) {
+      case DATASTORE_REPOSITORY:
+        return new DatastoreCommentRepository();
+      case MEMORY_REPOSITORY:
+        return new InMemoryCommentRepository();
+      case FILE_REPOSITORY:
+        return FileCommentRepository.open(System.getProperty(FILE_PROPERTY, DEFAULT_FILE));
+      default:
+        throw new IllegalStateException("Unknown " + REPOSITORY_PROPERTY + ": " + repositoryName);
+    }
+  }
+
+  /**
+   * Comments of one page, read as they are iterated. The cursor of the next page is only
+   * known once every comment has been read.
+   */
+  interface PageIterator extends Iterator<Comment> {
+    /** Returns the cursor of the next page, or an empty optional if no comments are left. */
+    Optional<String> nextCursor();
+  }
+
+  /** Creates the shared repository on first use, once system properties are set. */
+  final class Holder {
+    private static final CommentRepository INSTANCE = fromConfig();
+
+    private Holder() {}
+  }
+}
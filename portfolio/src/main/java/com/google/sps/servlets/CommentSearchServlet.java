@@ -0,0 +1,105 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentSearchIndex;
+import com.google.sps.data.SharedGson;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that searches the text and author name of comments with the {@link CommentSearchIndex},
+ * catching the index up with the {@link CommentRepository} first whenever it is due.
+ */
+@WebServlet("/data/search")
+public class CommentSearchServlet extends HttpServlet {
+  // Query parameters of a search.
+  private static final String QUERY_PARAMETER = "q";
+  private static final String LIMIT_PARAMETER = "limit";
+  private static final String CURSOR_PARAMETER = "cursor";
+  // Number of results returned when the client doesn't ask for a page size.
+  private static final int DEFAULT_LIMIT = 20;
+  // Largest page a client may ask for in one request.
+  private static final int MAX_LIMIT = 100;
+
+  // Comment fields the index reads, and the number of comments read per query while catching up.
+  private static final Set<String> INDEXED_FIELDS =
+      Collections.unmodifiableSet(new TreeSet<>(Arrays.asList("id", "name", "commentText", "timeStamp")));
+  private static final int CATCH_UP_PAGE_SIZE = 500;
+
+  /**
+   * Responds with one page of comments matching the {@code q} parameter, best match first. The
+   * {@code cursor} parameter is the next cursor of the previous page.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String query = request.getParameter(QUERY_PARAMETER);
+    if (query == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing search query.");
+      return;
+    }
+
+    int offset;
+    int limit;
+    try {
+      offset = Math.max(0, parseInt(request.getParameter(CURSOR_PARAMETER), 0));
+      limit = Math.max(1, Math.min(parseInt(request.getParameter(LIMIT_PARAMETER), DEFAULT_LIMIT), MAX_LIMIT));
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor or limit.");
+      return;
+    }
+
+    CommentSearchIndex searchIndex = CommentSearchIndex.getInstance();
+    searchIndex.catchUpIfDue(CommentSearchServlet::readChanges);
+
+    Gson gson = SharedGson.getInstance();
+    response.setContentType("text/html");
+    response.getWriter().println(
+        gson.toJson(searchIndex.search(query, offset, limit, CommentRepository.getInstance()::getAll)));
+  }
+
+  /**
+   * Calls {@code action} with every stored comment written at or after {@code since}, reading
+   * only the fields the index needs, and returns the time of the latest deletion after it, if any.
+   */
+  static Optional<Long> readChanges(long since, Consumer<Comment> action) {
+    CommentRepository repository = CommentRepository.getInstance();
+    Optional<Long> deletedBefore = repository.getDeletedSince(since);
+    Optional<String> cursor = Optional.empty();
+    do {
+      CommentRepository.PageIterator page =
+          repository.list(Optional.of(since), cursor, CATCH_UP_PAGE_SIZE, INDEXED_FIELDS);
+      page.forEachRemaining(action);
+      cursor = page.nextCursor();
+    } while (cursor.isPresent());
+    return deletedBefore;
+  }
+
+  /** Returns {@code value} as an int, or {@code defaultValue} if it is missing. */
+  private int parseInt(String value, int defaultValue) {
+    return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+  }
+}
@@ -0,0 +1,210 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentStats;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps comment statistics in sharded counter entities. Each write updates one random shard
+ * in its own transaction, so concurrent writers rarely contend on the same entity group, and
+ * reading the totals takes one batch get of every shard no matter how many comments exist.
+ *
+ * <p>Comments are counted when they are written, with the neutral score they are stored with,
+ * and moved to the bucket of their real score once it is stored. Deleted comments are taken
+ * back out by the scores they had, so comments written while a delete runs stay counted.
+ *
+ * <p>Updates are best effort: one that fails is logged and dropped rather than failing the
+ * write it counts, which has already been stored. {@link #recount} repairs the drift.
+ */
+final class CommentStatsCounter {
+  private static final Logger logger = Logger.getLogger(CommentStatsCounter.class.getName());
+
+  private static final String SHARD = "CommentStatsShard";
+  // Number of shards writes are spread over.
+  private static final int SHARD_COUNT = 20;
+  // Number of shards tried before giving up on a write that keeps conflicting.
+  private static final int MAX_ATTEMPTS = 3;
+
+  // Properties of each shard.
+  private static final String COUNT = "count";
+  private static final String SENTIMENT_SUM = "sentimentSum";
+  private static final String BUCKET_PREFIX = "bucket";
+
+  // Sentiment scores range from -100 to 100 and are counted in buckets of equal width.
+  private static final int MIN_SENTIMENT = -100;
+  private static final int MAX_SENTIMENT = 100;
+  private static final int BUCKET_COUNT = 10;
+  // Score comments are stored with until the sentiment engine scores them.
+  private static final long PENDING_SENTIMENT = 0;
+
+  private static final CommentStatsCounter INSTANCE = new CommentStatsCounter();
+
+  private final List<Key> shardKeys = new ArrayList<>();
+
+  private CommentStatsCounter() {
+    for (int i = 0; i < SHARD_COUNT; i++) {
+      shardKeys.add(KeyFactory.createKey(SHARD, SHARD + i));
+    }
+  }
+
+  /** Returns the counter shared by every servlet in this instance. */
+  static CommentStatsCounter getInstance() {
+    return INSTANCE;
+  }
+
+  /** Counts a newly written comment, which has the pending sentiment score until it is scored. */
+  void recordComment() {
+    Map<String, Long> changes = new HashMap<>();
+    addComment(changes, PENDING_SENTIMENT, 1);
+    apply(changes);
+  }
+
+  /** Moves a comment counted with the pending sentiment score to its {@code sentimentScore}. */
+  void recordScore(long sentimentScore) {
+    Map<String, Long> changes = new HashMap<>();
+    addComment(changes, PENDING_SENTIMENT, -1);
+    addComment(changes, sentimentScore, 1);
+    // The comment itself was already counted when it was written.
+    changes.remove(COUNT);
+    apply(changes);
+  }
+
+  /** Takes {@code deletedComments} back out of the counts. */
+  void recordDeletion(List<Comment> deletedComments) {
+    Map<String, Long> changes = new HashMap<>();
+    for (Comment comment : deletedComments) {
+      addComment(changes, comment.sentimentScore(), -1);
+    }
+    apply(changes);
+  }
+
+  /**
+   * Replaces the counts with a count of every stored comment. Run once to count comments
+   * written before comments were counted on write; comments written while it runs may be
+   * counted twice or not at all.
+   */
+  void recount() {
+    Map<String, Long> totals = new HashMap<>();
+    CommentRepository.getInstance().forEach(comment -> addComment(totals, comment.sentimentScore(), 1));
+
+    Entity shard = new Entity(shardKeys.get(0));
+    totals.forEach(shard::setUnindexedProperty);
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    datastore.delete(shardKeys);
+    datastore.put(shard);
+  }
+
+  /** Adds {@code times} comments with {@code sentimentScore} to {@code changes}. */
+  private static void addComment(Map<String, Long> changes, long sentimentScore, long times) {
+    changes.merge(COUNT, times, Long::sum);
+    changes.merge(SENTIMENT_SUM, sentimentScore * times, Long::sum);
+    changes.merge(BUCKET_PREFIX + getBucket(sentimentScore), times, Long::sum);
+  }
+
+  /** Adds {@code changes} to the properties of one random shard, logging it if that fails. */
+  private void apply(Map<String, Long> changes) {
+    try {
+      applyToShard(changes);
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Could not update comment stats by " + changes + ", recount to repair them.", e);
+    }
+  }
+
+  private void applyToShard(Map<String, Long> changes) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    for (int attempt = 1; ; attempt++) {
+      Key shardKey = shardKeys.get(ThreadLocalRandom.current().nextInt(SHARD_COUNT));
+      Transaction transaction = datastore.beginTransaction();
+      try {
+        Entity shard;
+        try {
+          shard = datastore.get(transaction, shardKey);
+        } catch (EntityNotFoundException e) {
+          shard = new Entity(shardKey);
+        }
+        for (Map.Entry<String, Long> change : changes.entrySet()) {
+          increment(shard, change.getKey(), change.getValue());
+        }
+        datastore.put(transaction, shard);
+        transaction.commit();
+        return;
+      } catch (ConcurrentModificationException e) {
+        // Another writer updated the same shard, so try again on another random one.
+        if (attempt == MAX_ATTEMPTS) {
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /** Returns the totals of every shard. */
+  CommentStats getStats() {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Map<Key, Entity> shards = datastore.get(shardKeys);
+
+    long count = 0;
+    long sentimentSum = 0;
+    List<Long> histogram = new ArrayList<>();
+    for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+      histogram.add(0L);
+    }
+    for (Entity shard : shards.values()) {
+      count += getCount(shard, COUNT);
+      sentimentSum += getCount(shard, SENTIMENT_SUM);
+      for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+        histogram.set(bucket, histogram.get(bucket) + getCount(shard, BUCKET_PREFIX + bucket));
+      }
+    }
+
+    double averageSentiment = count == 0 ? 0 : (double) sentimentSum / count;
+    return CommentStats.builder().setCount(count).setAverageSentiment(averageSentiment)
+      .setSentimentHistogram(histogram).build();
+  }
+
+  /** Returns the histogram bucket {@code sentimentScore} falls in. */
+  private static int getBucket(long sentimentScore) {
+    long clampedScore = Math.max(MIN_SENTIMENT, Math.min(sentimentScore, MAX_SENTIMENT));
+    int bucketWidth = (MAX_SENTIMENT - MIN_SENTIMENT) / BUCKET_COUNT;
+    return (int) Math.min((clampedScore - MIN_SENTIMENT) / bucketWidth, BUCKET_COUNT - 1);
+  }
+
+  private static long getCount(Entity shard, String property) {
+    return shard.hasProperty(property) ? (long) shard.getProperty(property) : 0;
+  }
+
+  private static void increment(Entity shard, String property, long amount) {
+    shard.setUnindexedProperty(property, getCount(shard, property) + amount);
+  }
+}
@@ -0,0 +1,133 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.Comment;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stores new comments. With the {@code comments.writeBehind} system property set, comments
+ * posted at about the same time are gathered for up to {@code FLUSH_WINDOW_MILLIS}, or until
+ * {@code MAX_BATCH_SIZE} are waiting, by a {@link MicroBatcher}, and stored with one call to the
+ * {@link CommentRepository} by the request that brought the first of them. Each request still
+ * waits until its own comment has been stored, so a redirect always follows a durable write.
+ */
+final class CommentWriter {
+  private static final Logger logger = Logger.getLogger(CommentWriter.class.getName());
+
+  // System property turning on batched writes, set in appengine-web.xml.
+  private static final String WRITE_BEHIND_PROPERTY = "comments.writeBehind";
+  // Time the first comment of a batch waits for others to join it.
+  private static final long FLUSH_WINDOW_MILLIS = 20;
+  // Number of comments that are stored right away. Datastore allows up to 500 per put.
+  private static final int MAX_BATCH_SIZE = 100;
+  // Time a request waits for its comment to be stored before giving up.
+  private static final long STORE_TIMEOUT_MILLIS = 10 * 1000;
+
+  private static final CommentWriter INSTANCE = new CommentWriter();
+
+  private final boolean writeBehind = Boolean.getBoolean(WRITE_BEHIND_PROPERTY);
+  private final MicroBatcher<PendingComment> batcher = new MicroBatcher<>(FLUSH_WINDOW_MILLIS, MAX_BATCH_SIZE);
+
+  private CommentWriter() {}
+
+  /** Returns the writer shared by every servlet in this instance. */
+  static CommentWriter getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Stores {@code comment} and returns it once it is stored, along with the id it was stored
+   * under. Throws if the comment couldn't be stored.
+   */
+  Comment put(Comment comment) throws IOException {
+    if (!writeBehind) {
+      return CommentRepository.getInstance().addAll(Collections.singletonList(comment)).get(0);
+    }
+
+    PendingComment pendingComment = new PendingComment(comment);
+    List<PendingComment> batch = batcher.join(pendingComment);
+    if (batch != null) {
+      store(batch);
+    }
+
+    try {
+      return pendingComment.stored.get(STORE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      // Taking the comment back out makes sure it isn't stored after the request has failed.
+      if (batcher.withdraw(pendingComment)) {
+        throw new IOException("Timed out waiting to store the comment.", e);
+      }
+      return waitForBatch(pendingComment);
+    } catch (ExecutionException e) {
+      throw new IOException("Could not store the comment.", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while storing the comment.", e);
+    }
+  }
+
+  /** Waits for the batch {@code pendingComment} is already part of. */
+  private Comment waitForBatch(PendingComment pendingComment) throws IOException {
+    try {
+      return pendingComment.stored.get();
+    } catch (ExecutionException e) {
+      throw new IOException("Could not store the comment.", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while storing the comment.", e);
+    }
+  }
+
+  /** Stores {@code batch} with one call and tells every waiting request how it went. */
+  private void store(List<PendingComment> batch) {
+    List<Comment> comments = new ArrayList<>();
+    for (PendingComment pendingComment : batch) {
+      comments.add(pendingComment.comment);
+    }
+
+    List<Comment> storedComments;
+    try {
+      storedComments = CommentRepository.getInstance().addAll(comments);
+    } catch (RuntimeException e) {
+      // A failed batch put may have stored some of the comments, but none can be confirmed.
+      logger.log(Level.WARNING, "Could not store a batch of " + batch.size() + " comments.", e);
+      batch.forEach(pendingComment -> pendingComment.stored.completeExceptionally(e));
+      return;
+    }
+    for (int i = 0; i < batch.size(); i++) {
+      batch.get(i).stored.complete(storedComments.get(i));
+    }
+  }
+
+  /** Comment waiting to be stored along with the future its request waits on. */
+  private static class PendingComment {
+    private final Comment comment;
+    private final CompletableFuture<Comment> stored = new CompletableFuture<>();
+
+    private PendingComment(Comment comment) {
+      this.comment = comment;
+    }
+  }
+}
@@ -16,14 +16,16 @@ package com.google.sps.servlets;
 
 import java.util.*; 
 import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
 import com.google.sps.data.Comment;
 import com.google.sps.data.Comment.Builder;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.SortDirection;
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
+import com.google.sps.data.CommentCache;
+import com.google.sps.data.CommentPage;
+import com.google.sps.data.CommentSearchIndex;
+import com.google.sps.data.CommentTypeAdapter;
+import com.google.sps.data.ImageUrls;
+import com.google.sps.data.SharedGson;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.appengine.api.blobstore.BlobInfo;
@@ -34,14 +36,17 @@ import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
 import com.google.appengine.api.images.ImagesService;
 import com.google.appengine.api.images.ImagesServiceFactory;
 import com.google.appengine.api.images.ServingUrlOptions;
-import com.google.cloud.language.v1.Document;
-import com.google.cloud.language.v1.LanguageServiceClient;
-import com.google.cloud.language.v1.Sentiment;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -51,15 +56,6 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/data")
 public class DataServlet extends HttpServlet {
   
-  // Used to create Entity and its fields.
-  private static final String COMMENT = "Comment";
-  private static final String TIME_STAMP = "timeStamp";
-  private static final String NAME = "name";
-  private static final String COMMENT_TEXT = "commentText";
-  private static final String EMAIL = "email";
-  private static final String IMAGE_URL = "imageUrl";
-  private static final String SENTIMENT_SCORE = "sentimentScore";
-
   // Supported image files.
   private static final String JPEG = "image/jpeg";
   private static final String PNG = "image/png";
@@ -74,47 +70,66 @@ public class DataServlet extends HttpServlet {
   
   private static final String REDIRECT_URL = "/html/comments.html";
 
+  // Media types a page of comments can be sent as, chosen by the Accept header.
+  private static final String ACCEPT_HEADER = "Accept";
+  private static final String VARY_HEADER = "Vary";
+  private static final String JSON_TYPE = "application/json";
+  private static final String CBOR_TYPE = "application/cbor";
+
+  // Query parameters used to page through comments.
+  private static final String LIMIT_PARAMETER = "limit";
+  private static final String CURSOR_PARAMETER = "cursor";
+  // Query parameter asking only for changes made after the given time stamp.
+  private static final String SINCE_PARAMETER = "since";
+  // Number of comments returned when the client doesn't ask for a page size.
+  private static final int DEFAULT_LIMIT = 20;
+  // Largest page a client may ask for in one request.
+  private static final int MAX_LIMIT = 100;
+
+  // Query parameter listing the comment fields a client needs, separated by commas.
+  private static final String FIELDS_PARAMETER = "fields";
+  private static final String FIELDS_SEPARATOR = ",";
+  // Every comment field a client may ask for. Sent when no fields are given.
+  private static final Set<String> ALL_FIELDS = CommentTypeAdapter.FIELDS;
+
+  // Fields of the JSON object sent back for a page of comments.
+  private static final String COMMENTS_FIELD = "comments";
+  private static final String NEXT_CURSOR_FIELD = "nextCursor";
+  private static final String DELETED_BEFORE_FIELD = "deletedBefore";
+
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
     String name = getParameter(request, NAME_INPUT, DEFAULT_VALUE);
     String commentText = getParameter(request, COMMENT_INPUT, DEFAULT_VALUE);
     long timeStamp = System.currentTimeMillis();
-    Optional<String> uploadedUrl = getUploadedFileUrl(request, /* forInputElement= */ "image");
+    Optional<BlobKey> uploadedImage = getUploadedImage(request, /* forInputElement= */ "image");
 
-    // Creates Entity and stores in database.
-    Entity commentEntity = new Entity(COMMENT);
-    commentEntity.setProperty(NAME, name);
-    commentEntity.setProperty(EMAIL, getEmail());
-    commentEntity.setProperty(IMAGE_URL, uploadedUrl.isPresent() ? uploadedUrl.get() : "");
-    commentEntity.setProperty(COMMENT_TEXT, commentText);
-    commentEntity.setProperty(TIME_STAMP, timeStamp);
-    commentEntity.setProperty(SENTIMENT_SCORE, getSentiment(commentText));
+    // The id is assigned when the comment is stored, and the sentiment score is filled in
+    // by a SentimentScorer task afterwards.
+    Builder commentBuilder = Comment.builder().setId(0).setName(name).setEmail(getEmail())
+      .setCommentText(commentText).setSentimentScore(0).setTimeStamp(timeStamp);
+    if (uploadedImage.isPresent()) {
+      String imageUrl = getServingUrl(uploadedImage.get());
+      commentBuilder.setImageUrl(Optional.of(imageUrl));
+      commentBuilder.setImageUrls(Optional.of(ImageUrls.fromServingUrl(imageUrl)));
+      // Kept so the image can be deleted from Blobstore along with the comment.
+      commentBuilder.setImageBlobKey(Optional.of(uploadedImage.get().getKeyString()));
+    }
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    datastore.put(commentEntity);
+    Comment comment = CommentWriter.getInstance().put(commentBuilder.build());
+    CommentCache.getInstance().invalidate();
+    CommentSearchIndex.getInstance().add(comment);
+    CommentStatsCounter.getInstance().recordComment();
+    SentimentScorer.getInstance().submit(comment.id());
 
     response.sendRedirect(REDIRECT_URL);
   }
 
-  /**
-   * Returns sentiment analysis score of {@code commentText} ranging from -1 to 1.
-   * The closer to -1, the most likely the comment is bad. The closer to 1, the comment
-   * is most likely good.
-   */
-  private long getSentiment(String commentText) throws IOException {
-    Document doc = Document.newBuilder().setContent(commentText).setType(Document.Type.PLAIN_TEXT).build();
-    LanguageServiceClient languageService = LanguageServiceClient.create();
-    Sentiment sentiment = languageService.analyzeSentiment(doc).getDocumentSentiment();
-    long score = (long)(sentiment.getScore() * 100);
-    languageService.close();
-    return score;
-  }
-
   /** 
-   * Returns the URL that points to a file uploaded by {@code formInputElementName}, 
+   * Returns the key of the image uploaded by {@code formInputElementName}, 
    * or an empty optional if the user didn't upload an image file. 
    */
-  private Optional<String> getUploadedFileUrl(HttpServletRequest request, String formInputElementName) {
+  private Optional<BlobKey> getUploadedImage(HttpServletRequest request, String formInputElementName) {
     BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
     Map<String, List<BlobKey>> blobs = blobstoreService.getUploads(request);
     List<BlobKey> blobKeys = blobs.get(formInputElementName);
@@ -137,17 +152,23 @@ public class DataServlet extends HttpServlet {
 
     // Return empty optional if file is not a jpg, png or tiff image.
     if (!fileInfo.equals(JPEG) && !fileInfo.equals(PNG) && !fileInfo.equals(TIFF)) {
+      blobstoreService.delete(blobKey);
       return Optional.empty();
     }
 
+    return Optional.of(blobKey);
+  }
+
+  /** Returns the URL that points to the uploaded image with {@code blobKey}. */
+  private String getServingUrl(BlobKey blobKey) {
     ImagesService imagesService = ImagesServiceFactory.getImagesService();
     ServingUrlOptions options = ServingUrlOptions.Builder.withBlobKey(blobKey);
 
     try {
       URL url = new URL(imagesService.getServingUrl(options));
-      return Optional.of(url.getPath());
+      return url.getPath();
     } catch (MalformedURLException e) {
-      return Optional.of(imagesService.getServingUrl(options));
+      return imagesService.getServingUrl(options);
     }
   }
   
@@ -173,34 +194,203 @@ public class DataServlet extends HttpServlet {
     return value;
   }
 
+  /**
+   * Returns the page size requested with the {@code limit} parameter, clamped between 1 and
+   * {@code MAX_LIMIT}. Falls back to {@code DEFAULT_LIMIT} if the parameter is missing or invalid.
+   */
+  private int getLimit(HttpServletRequest request) {
+    try {
+      int limit = Integer.parseInt(getParameter(request, LIMIT_PARAMETER, DEFAULT_VALUE));
+      return Math.max(1, Math.min(limit, MAX_LIMIT));
+    } catch (NumberFormatException e) {
+      return DEFAULT_LIMIT;
+    }
+  }
+
+  /**
+   * Returns the time stamp in the {@code since} parameter, or an empty optional if it is missing.
+   * @throws NumberFormatException if the parameter isn't a number.
+   */
+  private Optional<Long> getSince(HttpServletRequest request) {
+    String since = getParameter(request, SINCE_PARAMETER, DEFAULT_VALUE);
+    if (since.isEmpty()) {
+      return Optional.empty();
+    }
+    return Optional.of(Long.parseLong(since));
+  }
+
+  /** Returns whether the {@code accept} header lists CBOR without a zero quality. */
+  private static boolean acceptsCbor(String accept) {
+    if (accept == null) {
+      return false;
+    }
+    for (String mediaRange : accept.split(",")) {
+      String[] parameters = mediaRange.split(";");
+      if (!parameters[0].trim().equalsIgnoreCase(CBOR_TYPE)) {
+        continue;
+      }
+      for (int i = 1; i < parameters.length; i++) {
+        String parameter = parameters[i].trim();
+        if (parameter.startsWith("q=") && parameter.substring(2).matches("0(\\.0*)?")) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the comment fields listed in the {@code fields} parameter, or every field if the
+   * parameter is missing. Returns an empty set if any listed field is unknown.
+   */
+  private Set<String> getFields(HttpServletRequest request) {
+    String fieldsParameter = getParameter(request, FIELDS_PARAMETER, DEFAULT_VALUE);
+    if (fieldsParameter.isEmpty()) {
+      return ALL_FIELDS;
+    }
+
+    Set<String> fields = new TreeSet<>();
+    for (String field : fieldsParameter.split(FIELDS_SEPARATOR)) {
+      if (!ALL_FIELDS.contains(field.trim())) {
+        return Collections.emptySet();
+      }
+      fields.add(field.trim());
+    }
+    return fields;
+  }
+
+  /**
+   * Responds with one page of comments starting at the {@code cursor} parameter, along with
+   * the cursor of the next page if there may be more comments to read. Only the comment fields
+   * listed in the {@code fields} parameter are read and sent. Pages are served from
+   * the {@link CommentCache} when possible. Every page carries an ETag and is answered with
+   * 304 Not Modified if the client already has it.
+   *
+   * <p>If the {@code since} parameter is given, only comments written at or after it are sent,
+   * along with the time of the latest deletion after it, if any. Clients should drop every comment
+   * they hold from before that time. Comments may be sent more than once, so clients match them by id.
+   * Clients polling for changes should round {@code since} down, so their polls share cached pages.
+   */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Query query = new Query(COMMENT).addSort(TIME_STAMP, SortDirection.ASCENDING);
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    PreparedQuery results = datastore.prepare(query);
+    int limit = getLimit(request);
+    String startCursor = getParameter(request, CURSOR_PARAMETER, DEFAULT_VALUE);
+    Set<String> fields = getFields(request);
+    if (fields.isEmpty()) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown field.");
+      return;
+    }
+    Optional<Long> since;
+    try {
+      since = getSince(request);
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid since time stamp.");
+      return;
+    }
+
+    boolean cbor = acceptsCbor(request.getHeader(ACCEPT_HEADER));
+    response.addHeader(VARY_HEADER, ACCEPT_HEADER);
+
+    String cacheKey = limit + ":" + String.join(FIELDS_SEPARATOR, fields) + ":" + startCursor
+        + ":" + since.map(String::valueOf).orElse("");
+    CommentCache commentCache = CommentCache.getInstance();
+    Optional<CommentPage> cachedPage = commentCache.get(cacheKey);
+    if (cachedPage.isPresent()) {
+      sendPage(request, response, cbor, cachedPage.get().comments().iterator(), fields, cachedPage.get()::nextCursor,
+          cachedPage.get().deletedBefore());
+      return;
+    }
 
+    long cacheGeneration = commentCache.generation();
+    CommentRepository repository = CommentRepository.getInstance();
+    Optional<Long> deletedBefore = since.isPresent() ? repository.getDeletedSince(since.get()) : Optional.empty();
+    CommentRepository.PageIterator results;
+    try {
+      results = repository.list(since, startCursor.isEmpty() ? Optional.empty() : Optional.of(startCursor),
+          limit, fields);
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+      return;
+    }
+
+    // Keeps each comment as it is written so the page can be cached once the query is done.
     List<Comment> comments = new ArrayList<>();
-    for (Entity entity : results.asIterable()) {
-      long id = entity.getKey().getId();
-      String name = (String) entity.getProperty(NAME);
-      String email = (String) entity.getProperty(EMAIL);
-      String imageUrl = (String) entity.getProperty(IMAGE_URL);
-      String commentText = (String) entity.getProperty(COMMENT_TEXT);
-      long sentimentScore = (long) entity.getProperty(SENTIMENT_SCORE);
-      long timeStamp = (long) entity.getProperty(TIME_STAMP);
-      
-      // Creates new Comment for JSON accessibility.
-      Builder commentBuilder = Comment.builder().setId(id).setName(name).setEmail(email)
-        .setCommentText(commentText).setSentimentScore(sentimentScore).setTimeStamp(timeStamp);
-
-      if (!imageUrl.isEmpty()) {
-        commentBuilder.setImageUrl(Optional.of(imageUrl));
+    Iterator<Comment> commentIterator = new Iterator<Comment>() {
+      @Override
+      public boolean hasNext() {
+        return results.hasNext();
       }
-      comments.add(commentBuilder.build());
+
+      @Override
+      public Comment next() {
+        Comment comment = results.next();
+        comments.add(comment);
+        return comment;
+      }
+    };
+
+    // The cursor is only read once every comment has been written.
+    Supplier<Optional<String>> nextCursor = results::nextCursor;
+    sendPage(request, response, cbor, commentIterator, fields, nextCursor, deletedBefore);
+
+    CommentPage page = CommentPage.builder().setComments(comments).setNextCursor(nextCursor.get())
+        .setDeletedBefore(deletedBefore).build();
+    commentCache.put(cacheKey, page, cacheGeneration);
+  }
+
+  /**
+   * Sends a page written by {@link #writePage}. The page is written to memory first, so it
+   * can be tagged with a hash of its bytes and answered with 304 Not Modified if the client
+   * already has it. Pages are at most {@code MAX_LIMIT} comments, so buffering them is cheap.
+   */
+  private void sendPage(HttpServletRequest request, HttpServletResponse response, boolean cbor,
+      Iterator<Comment> comments, Set<String> fields, Supplier<Optional<String>> nextCursor,
+      Optional<Long> deletedBefore) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    writePage(body, cbor, comments, fields, nextCursor, deletedBefore);
+    if (cbor) {
+      response.setContentType(CBOR_TYPE);
+    } else {
+      response.setContentType(JSON_TYPE);
+      response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+    }
+    if (EntityTags.checkNotModified(request, response, body.toByteArray())) {
+      return;
+    }
+    body.writeTo(response.getOutputStream());
+  }
+
+  /**
+   * Writes a page of {@code comments} followed by its next cursor to {@code out}. Only the
+   * comment {@code fields} given are written. The next cursor, the {@code deletedBefore} time
+   * and comment images are only written if present. The page is written as CBOR if
+   * {@code cbor} is set, and as UTF-8 JSON otherwise.
+   */
+  private void writePage(OutputStream out, boolean cbor, Iterator<Comment> comments,
+      Set<String> fields, Supplier<Optional<String>> nextCursor, Optional<Long> deletedBefore) throws IOException {
+    Gson gson = SharedGson.getInstance();
+    JsonWriter jsonWriter = cbor
+        ? new CborWriter(out)
+        : gson.newJsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    jsonWriter.beginObject();
+    TypeAdapter<Comment> commentAdapter =
+        fields.equals(ALL_FIELDS) ? gson.getAdapter(Comment.class) : CommentTypeAdapter.forFields(fields);
+    jsonWriter.name(COMMENTS_FIELD).beginArray();
+    while (comments.hasNext()) {
+      commentAdapter.write(jsonWriter, comments.next());
+    }
+    jsonWriter.endArray();
+
+    Optional<String> cursor = nextCursor.get();
+    if (cursor.isPresent()) {
+      jsonWriter.name(NEXT_CURSOR_FIELD).value(cursor.get());
     }
 
-    Gson gson = new Gson();
-    response.setContentType("text/html");
-    response.getWriter().println(gson.toJson(comments));
+    if (deletedBefore.isPresent()) {
+      jsonWriter.name(DELETED_BEFORE_FIELD).value(deletedBefore.get());
+    }
+    jsonWriter.endObject();
+    jsonWriter.flush();
   }
 }
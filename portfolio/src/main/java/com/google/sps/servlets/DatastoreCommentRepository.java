@@ -0,0 +1,368 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentPage;
+import com.google.sps.data.ImageUrls;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Stores comments as {@code Comment} entities in Datastore. This is the only place comments
+ * are turned into entities and back.
+ */
+final class DatastoreCommentRepository implements CommentRepository {
+  // Used to create Entity and its fields.
+  private static final String COMMENT = "Comment";
+  private static final String TIME_STAMP = "timeStamp";
+  private static final String NAME = "name";
+  private static final String COMMENT_TEXT = "commentText";
+  private static final String EMAIL = "email";
+  private static final String IMAGE_URL = "imageUrl";
+  private static final String IMAGE_BLOB_KEY = "imageBlobKey";
+  private static final String SENTIMENT_SCORE = "sentimentScore";
+  private static final String SENTIMENT_PENDING = "sentimentPending";
+  // Records when comments were deleted so clients asking for changes can drop them.
+  private static final String COMMENT_TOMBSTONE = "CommentTombstone";
+  // Value stored for a missing name, email, image or text.
+  private static final String EMPTY_VALUE = "";
+
+  // Comment field filled from the entity key rather than a property.
+  private static final String ID = "id";
+  // Comment field derived from the imageUrl property.
+  private static final String IMAGE_URLS = "imageUrls";
+  // Field sets read with a projection query instead of whole entities. Each one needs a
+  // composite index over the properties it is read from in datastore-indexes.xml.
+  private static final Set<Set<String>> PROJECTED_FIELDS = new HashSet<>(Arrays.asList(
+      new TreeSet<>(Arrays.asList(EMAIL, IMAGE_URL, COMMENT_TEXT, SENTIMENT_SCORE, TIME_STAMP)),
+      new TreeSet<>(Arrays.asList(EMAIL, IMAGE_URLS, COMMENT_TEXT, SENTIMENT_SCORE, TIME_STAMP))));
+  // Property each derived field is read from.
+  private static final Map<String, String> DERIVED_FIELD_PROPERTIES = Collections.singletonMap(IMAGE_URLS, IMAGE_URL);
+  // Type of each property loaded by a projection query.
+  private static final Map<String, Class<?>> PROPERTY_TYPES = new HashMap<>();
+  static {
+    PROPERTY_TYPES.put(NAME, String.class);
+    PROPERTY_TYPES.put(EMAIL, String.class);
+    PROPERTY_TYPES.put(IMAGE_URL, String.class);
+    PROPERTY_TYPES.put(COMMENT_TEXT, String.class);
+    PROPERTY_TYPES.put(SENTIMENT_SCORE, Long.class);
+    PROPERTY_TYPES.put(TIME_STAMP, Long.class);
+  }
+
+  // Comments read per round trip when reading every comment.
+  private static final int SCAN_CHUNK_SIZE = 500;
+  // Keys deleted per call. Datastore allows up to 500.
+  private static final int DELETE_BATCH_SIZE = 500;
+  // Entities read and written per call when updating comments. Datastore allows up to 500 per put.
+  private static final int UPDATE_BATCH_SIZE = 500;
+
+  @Override
+  public List<Comment> addAll(List<Comment> comments) {
+    List<Entity> entities = new ArrayList<>();
+    for (Comment comment : comments) {
+      entities.add(toEntity(comment));
+    }
+    // Putting completes the key of each entity.
+    DatastoreServiceFactory.getDatastoreService().put(entities);
+
+    List<Comment> storedComments = new ArrayList<>();
+    for (Entity entity : entities) {
+      storedComments.add(toComment(entity));
+    }
+    return storedComments;
+  }
+
+  @Override
+  public Map<Long, Comment> getAll(Collection<Long> ids) {
+    List<Key> keys = new ArrayList<>();
+    for (long id : ids) {
+      keys.add(KeyFactory.createKey(COMMENT, id));
+    }
+
+    Map<Long, Comment> comments = new HashMap<>();
+    for (Entity entity : DatastoreServiceFactory.getDatastoreService().get(keys).values()) {
+      comments.put(entity.getKey().getId(), toComment(entity));
+    }
+    return comments;
+  }
+
+  @Override
+  public PageIterator list(Optional<Long> since, Optional<String> startCursor, int limit, Set<String> fields) {
+    // Fetch the whole page in a single batch instead of the default chunks.
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(limit).chunkSize(limit).prefetchSize(limit);
+    if (startCursor.isPresent()) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(startCursor.get()));
+    }
+
+    QueryResultIterator<Entity> results = DatastoreServiceFactory.getDatastoreService()
+        .prepare(newListQuery(since, fields)).asQueryResultIterator(fetchOptions);
+
+    return new PageIterator() {
+      private int readComments = 0;
+
+      @Override
+      public boolean hasNext() {
+        return results.hasNext();
+      }
+
+      @Override
+      public Comment next() {
+        readComments++;
+        return toComment(results.next());
+      }
+
+      @Override
+      public Optional<String> nextCursor() {
+        // A short page means the query ran out of comments, so there is nothing left to fetch.
+        if (readComments < limit) {
+          return Optional.empty();
+        }
+        return Optional.of(results.getCursor().toWebSafeString());
+      }
+    };
+  }
+
+  /**
+   * Returns the query reading comments written at or after {@code since}, oldest first. It is a
+   * projection query if {@code fields} are one of the {@code PROJECTED_FIELDS} sets.
+   */
+  static Query newListQuery(Optional<Long> since, Set<String> fields) {
+    Query query = new Query(COMMENT).addSort(TIME_STAMP, SortDirection.ASCENDING);
+    if (since.isPresent()) {
+      query.setFilter(new FilterPredicate(TIME_STAMP, FilterOperator.GREATER_THAN_OR_EQUAL, since.get()));
+    }
+    // The id comes from the key, which every projection query returns.
+    Set<String> propertyFields = new TreeSet<>(fields);
+    propertyFields.remove(ID);
+    if (PROJECTED_FIELDS.contains(propertyFields)) {
+      propertyFields.stream()
+        .map(field -> DERIVED_FIELD_PROPERTIES.getOrDefault(field, field))
+        .forEach(field -> query.addProjection(new PropertyProjection(field, PROPERTY_TYPES.get(field))));
+    }
+    return query;
+  }
+
+  @Override
+  public CommentPage listUpTo(long upTo, Optional<String> startCursor, int limit) {
+    Query query = new Query(COMMENT)
+        .setFilter(new FilterPredicate(TIME_STAMP, FilterOperator.LESS_THAN_OR_EQUAL, upTo))
+        .addSort(TIME_STAMP, SortDirection.ASCENDING);
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(limit).chunkSize(limit);
+    if (startCursor.isPresent()) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(startCursor.get()));
+    }
+
+    QueryResultList<Entity> results =
+        DatastoreServiceFactory.getDatastoreService().prepare(query).asQueryResultList(fetchOptions);
+    List<Comment> comments = new ArrayList<>();
+    for (Entity entity : results) {
+      comments.add(toComment(entity));
+    }
+    Optional<String> nextCursor =
+        results.size() < limit ? Optional.empty() : Optional.of(results.getCursor().toWebSafeString());
+    return CommentPage.builder().setComments(comments).setNextCursor(nextCursor).build();
+  }
+
+  @Override
+  public void forEach(Consumer<Comment> action) {
+    Iterable<Entity> results = DatastoreServiceFactory.getDatastoreService().prepare(new Query(COMMENT))
+        .asIterable(FetchOptions.Builder.withChunkSize(SCAN_CHUNK_SIZE).prefetchSize(SCAN_CHUNK_SIZE));
+    for (Entity entity : results) {
+      action.accept(toComment(entity));
+    }
+  }
+
+  /** Deletes the comments in batches sent all at once, then waits for every batch. */
+  @Override
+  public void deleteAll(Collection<Long> ids) {
+    List<Key> keys = new ArrayList<>();
+    for (long id : ids) {
+      keys.add(KeyFactory.createKey(COMMENT, id));
+    }
+
+    AsyncDatastoreService datastore = DatastoreServiceFactory.getAsyncDatastoreService();
+    List<Future<Void>> deletes = new ArrayList<>();
+    for (int i = 0; i < keys.size(); i += DELETE_BATCH_SIZE) {
+      deletes.add(datastore.delete(keys.subList(i, Math.min(i + DELETE_BATCH_SIZE, keys.size()))));
+    }
+    try {
+      for (Future<Void> delete : deletes) {
+        delete.get();
+      }
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Could not delete " + keys.size() + " comments.", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while deleting comments.", e);
+    }
+  }
+
+  @Override
+  public void setImageBlobKeys(Map<Long, String> imageBlobKeys) {
+    List<Key> keys = new ArrayList<>();
+    for (long id : imageBlobKeys.keySet()) {
+      keys.add(KeyFactory.createKey(COMMENT, id));
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    for (int i = 0; i < keys.size(); i += UPDATE_BATCH_SIZE) {
+      List<Key> batch = keys.subList(i, Math.min(i + UPDATE_BATCH_SIZE, keys.size()));
+      Collection<Entity> entities = datastore.get(batch).values();
+      for (Entity entity : entities) {
+        entity.setUnindexedProperty(IMAGE_BLOB_KEY, imageBlobKeys.get(entity.getKey().getId()));
+      }
+      datastore.put(entities);
+    }
+  }
+
+  @Override
+  public Optional<Comment> completeSentiment(long id, long sentimentScore) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      Entity commentEntity = datastore.get(transaction, KeyFactory.createKey(COMMENT, id));
+      if (!Boolean.TRUE.equals(commentEntity.getProperty(SENTIMENT_PENDING))) {
+        return Optional.empty();
+      }
+      commentEntity.setProperty(SENTIMENT_SCORE, sentimentScore);
+      commentEntity.setProperty(SENTIMENT_PENDING, false);
+      datastore.put(transaction, commentEntity);
+      transaction.commit();
+      return Optional.of(toComment(commentEntity));
+    } catch (EntityNotFoundException e) {
+      // The comment was deleted before it was scored.
+      return Optional.empty();
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  @Override
+  public List<Long> findPendingSentiment(long writtenBefore, int limit) {
+    Query query = new Query(COMMENT).setKeysOnly().setFilter(CompositeFilterOperator.and(
+        new FilterPredicate(SENTIMENT_PENDING, FilterOperator.EQUAL, true),
+        new FilterPredicate(TIME_STAMP, FilterOperator.LESS_THAN, writtenBefore)));
+    List<Long> ids = new ArrayList<>();
+    for (Entity entity : DatastoreServiceFactory.getDatastoreService().prepare(query)
+        .asIterable(FetchOptions.Builder.withLimit(limit))) {
+      ids.add(entity.getKey().getId());
+    }
+    return ids;
+  }
+
+  @Override
+  public void recordDeletion(long deletedBefore) {
+    Entity tombstoneEntity = new Entity(COMMENT_TOMBSTONE);
+    tombstoneEntity.setProperty(TIME_STAMP, deletedBefore);
+    DatastoreServiceFactory.getDatastoreService().put(tombstoneEntity);
+  }
+
+  @Override
+  public Optional<Long> getDeletedSince(long since) {
+    Query query = new Query(COMMENT_TOMBSTONE)
+        .setFilter(new FilterPredicate(TIME_STAMP, FilterOperator.GREATER_THAN, since))
+        .addSort(TIME_STAMP, SortDirection.DESCENDING);
+    List<Entity> tombstones = DatastoreServiceFactory.getDatastoreService().prepare(query)
+        .asList(FetchOptions.Builder.withLimit(1));
+    if (tombstones.isEmpty()) {
+      return Optional.empty();
+    }
+    return Optional.of((long) tombstones.get(0).getProperty(TIME_STAMP));
+  }
+
+  /** Returns a new entity holding {@code comment}, with a pending, neutral sentiment score. */
+  private static Entity toEntity(Comment comment) {
+    Entity commentEntity = new Entity(COMMENT);
+    commentEntity.setProperty(NAME, comment.name());
+    commentEntity.setProperty(EMAIL, comment.email());
+    commentEntity.setProperty(IMAGE_URL, comment.imageUrl().orElse(EMPTY_VALUE));
+    // Only read back to delete the image, so it doesn't need an index.
+    commentEntity.setUnindexedProperty(IMAGE_BLOB_KEY, comment.imageBlobKey().orElse(EMPTY_VALUE));
+    commentEntity.setProperty(COMMENT_TEXT, comment.commentText());
+    commentEntity.setProperty(TIME_STAMP, comment.timeStamp());
+    commentEntity.setProperty(SENTIMENT_SCORE, 0L);
+    commentEntity.setProperty(SENTIMENT_PENDING, true);
+    return commentEntity;
+  }
+
+  /**
+   * Returns a Comment holding the properties stored in {@code entity}. Properties left out
+   * of a projection query are filled with empty values.
+   */
+  private static Comment toComment(Entity entity) {
+    String imageUrl = getStringProperty(entity, IMAGE_URL);
+    String imageBlobKey = getStringProperty(entity, IMAGE_BLOB_KEY);
+    Comment.Builder commentBuilder = Comment.builder()
+        .setId(entity.getKey().getId())
+        .setName(getStringProperty(entity, NAME))
+        .setEmail(getStringProperty(entity, EMAIL))
+        .setCommentText(getStringProperty(entity, COMMENT_TEXT))
+        .setSentimentScore(getLongProperty(entity, SENTIMENT_SCORE))
+        .setTimeStamp(getLongProperty(entity, TIME_STAMP));
+
+    if (!imageUrl.isEmpty()) {
+      commentBuilder.setImageUrl(Optional.of(imageUrl));
+      commentBuilder.setImageUrls(Optional.of(ImageUrls.fromServingUrl(imageUrl)));
+    }
+    // Comments written before image keys were stored only have a URL.
+    if (!imageBlobKey.isEmpty()) {
+      commentBuilder.setImageBlobKey(Optional.of(imageBlobKey));
+    }
+    return commentBuilder.build();
+  }
+
+  /** Returns the String property {@code name} of {@code entity}, or an empty String if it wasn't loaded. */
+  private static String getStringProperty(Entity entity, String name) {
+    return entity.hasProperty(name) ? (String) entity.getProperty(name) : EMPTY_VALUE;
+  }
+
+  /** Returns the long property {@code name} of {@code entity}, or 0 if it wasn't loaded. */
+  private static long getLongProperty(Entity entity, String name) {
+    return entity.hasProperty(name) ? (long) entity.getProperty(name) : 0;
+  }
+}
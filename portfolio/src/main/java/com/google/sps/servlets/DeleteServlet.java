@@ -1,4 +1,4 @@
-// Copyright 2019 Google LLC
+// Copyright 2020 Google LLC
 //
 // Licensed under the Apache License, Version 2.0 (the "License");
 // you may not use this file except in compliance with the License.
@@ -14,34 +14,29 @@
 
 package com.google.sps.servlets;
 
-import java.util.*; 
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import java.util.stream.StreamSupport;
+import com.google.gson.Gson;
+import com.google.sps.data.DeleteJobStatus;
+import com.google.sps.data.SharedGson;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Servlet that deletes all comments. */
+/**
+ * Servlet that starts deleting all comments in the background and responds with the status
+ * of the job. Its progress can be followed at {@code /delete-data/status}.
+ */
 @WebServlet("/delete-data")
 public class DeleteServlet extends HttpServlet {
-  private static final String COMMENT = "Comment";
-  
-  // TODO: Update to use transaction for deletion.
+
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Query query = new Query(COMMENT);
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    PreparedQuery results = datastore.prepare(query);
-    Iterable<Entity> resultsIterable = results.asIterable();
-    
-    StreamSupport.stream(resultsIterable.spliterator(), false)
-      .map(entity->entity.getKey())
-      .forEach(datastore::delete);
+    DeleteJobStatus status = CommentDeleteJob.getInstance().requestDeletion();
+
+    Gson gson = SharedGson.getInstance();
+    response.setStatus(HttpServletResponse.SC_ACCEPTED);
+    response.setContentType("text/html");
+    response.getWriter().println(gson.toJson(status));
   }
 }
@@ -0,0 +1,43 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.sps.data.DeleteJobStatus;
+import com.google.sps.data.SharedGson;
+import java.io.IOException;
+import java.util.Optional;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servlet that responds with the status of the latest job deleting all comments. */
+@WebServlet("/delete-data/status")
+public class DeleteStatusServlet extends HttpServlet {
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    Optional<DeleteJobStatus> status = CommentDeleteJob.getInstance().getStatus();
+    if (!status.isPresent()) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, "Comments were never deleted.");
+      return;
+    }
+
+    Gson gson = SharedGson.getInstance();
+    response.setContentType("text/html");
+    response.getWriter().println(gson.toJson(status.get()));
+  }
+}
@@ -0,0 +1,76 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Helpers for answering conditional GET requests with ETags. */
+final class EntityTags {
+  private static final String ETAG_HEADER = "ETag";
+  private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+  private static final String CACHE_CONTROL_HEADER = "Cache-Control";
+  // Lets clients keep a response but makes them check it with the servlet before reusing it.
+  private static final String REVALIDATE = "no-cache";
+  private static final String WEAK_PREFIX = "W/";
+  private static final String ANY_TAG = "*";
+  // Tags are a hash of the response body, so different bodies practically never share a tag.
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+
+  private EntityTags() {}
+
+  /**
+   * Sets a weak ETag derived from the {@code body} about to be sent on the {@code response}.
+   * Returns true, after answering with 304 Not Modified, if the {@code request} already holds
+   * a response with that tag. The caller should only write the body when this returns false.
+   */
+  static boolean checkNotModified(HttpServletRequest request, HttpServletResponse response, byte[] body) {
+    String entityTag = WEAK_PREFIX + "\"" + digest(body) + "\"";
+    response.setHeader(ETAG_HEADER, entityTag);
+    response.setHeader(CACHE_CONTROL_HEADER, REVALIDATE);
+
+    String ifNoneMatch = request.getHeader(IF_NONE_MATCH_HEADER);
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String clientTag : ifNoneMatch.split(",")) {
+      clientTag = clientTag.trim();
+      if (clientTag.equals(ANY_TAG) || stripWeakPrefix(clientTag).equals(stripWeakPrefix(entityTag))) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns the SHA-256 hash of {@code body} as unpadded URL-safe Base64. */
+  private static String digest(byte[] body) {
+    try {
+      byte[] hash = MessageDigest.getInstance(DIGEST_ALGORITHM).digest(body);
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Returns {@code entityTag} without its weak prefix, as If-None-Match uses weak comparison. */
+  private static String stripWeakPrefix(String entityTag) {
+    return entityTag.startsWith(WEAK_PREFIX) ? entityTag.substring(WEAK_PREFIX.length()) : entityTag;
+  }
+}
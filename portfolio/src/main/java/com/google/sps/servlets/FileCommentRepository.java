@@ -0,0 +1,280 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentPage;
+import com.google.sps.data.ImageUrls;
+import com.google.sps.data.SharedGson;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Keeps comments in memory and appends every change to a journal file, one JSON object per
+ * line, which is replayed when the repository is opened. Meant for running locally, since
+ * deployed instances can't write to their file system. The journal is never compacted.
+ */
+final class FileCommentRepository implements CommentRepository {
+  private static final Logger logger = Logger.getLogger(FileCommentRepository.class.getName());
+
+  // Field of each journal line naming the change it records.
+  private static final String CHANGE = "change";
+  private static final String ADD = "add";
+  private static final String SCORE = "score";
+  private static final String DELETE = "delete";
+  private static final String DELETION = "deletion";
+  private static final String IMAGE_BLOB_KEYS = "imageBlobKeys";
+  // Fields holding the comment, or the ids, a change applies to. Added comments are written
+  // by the shared Gson, which leaves out the image's Blobstore key, so it is journaled beside them.
+  private static final String COMMENT = "comment";
+  private static final String IMAGE_BLOB_KEY = "imageBlobKey";
+  private static final String ID = "id";
+  private static final String IDS = "ids";
+  private static final String KEYS_BY_ID = "keysById";
+  private static final String SENTIMENT_SCORE = "sentimentScore";
+  private static final String TIME_STAMP = "timeStamp";
+
+  private final InMemoryCommentRepository comments;
+  private final Writer journal;
+  private final Gson gson = SharedGson.getInstance();
+
+  private FileCommentRepository(InMemoryCommentRepository comments, Writer journal) {
+    this.comments = comments;
+    this.journal = journal;
+  }
+
+  /**
+   * Returns a repository holding the comments journaled to the file at {@code path}, which is
+   * created if it doesn't exist.
+   */
+  static FileCommentRepository open(String path) {
+    InMemoryCommentRepository comments = new InMemoryCommentRepository();
+    Path journalPath = Paths.get(path);
+    try {
+      boolean hasChanges = Files.exists(journalPath) && Files.size(journalPath) > 0;
+      if (hasChanges) {
+        replay(journalPath, comments);
+      }
+      Writer journal = Files.newBufferedWriter(journalPath, StandardCharsets.UTF_8,
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      if (hasChanges) {
+        // Ends a line cut off by a crash, so the next change starts on a line of its own.
+        journal.write(System.lineSeparator());
+        journal.flush();
+      }
+      return new FileCommentRepository(comments, journal);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not open the comment journal " + path + ".", e);
+    }
+  }
+
+  /** Applies every change journaled to {@code journalPath} to {@code comments}. */
+  private static void replay(Path journalPath, InMemoryCommentRepository comments) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        try {
+          replayChange(JsonParser.parseString(line).getAsJsonObject(), comments);
+        } catch (JsonParseException | IllegalStateException e) {
+          logger.warning("Skipping a journaled change that was cut off: " + line);
+        }
+      }
+    }
+  }
+
+  private static void replayChange(JsonObject change, InMemoryCommentRepository comments) {
+    switch (change.get(CHANGE).getAsString()) {
+      case ADD:
+        comments.restore(toComment(change), /* sentimentPending= */ true);
+        break;
+      case SCORE:
+        comments.completeSentiment(change.get(ID).getAsLong(), change.get(SENTIMENT_SCORE).getAsLong());
+        break;
+      case DELETE:
+        List<Long> ids = new ArrayList<>();
+        for (JsonElement id : change.getAsJsonArray(IDS)) {
+          ids.add(id.getAsLong());
+        }
+        comments.deleteAll(ids);
+        break;
+      case DELETION:
+        comments.recordDeletion(change.get(TIME_STAMP).getAsLong());
+        break;
+      case IMAGE_BLOB_KEYS:
+        Map<Long, String> imageBlobKeys = new HashMap<>();
+        for (Map.Entry<String, JsonElement> imageBlobKey : change.getAsJsonObject(KEYS_BY_ID).entrySet()) {
+          imageBlobKeys.put(Long.parseLong(imageBlobKey.getKey()), imageBlobKey.getValue().getAsString());
+        }
+        comments.setImageBlobKeys(imageBlobKeys);
+        break;
+      default:
+        throw new IllegalStateException("Unknown change: " + change);
+    }
+  }
+
+  @Override
+  public synchronized List<Comment> addAll(List<Comment> newComments) {
+    List<Comment> storedComments = comments.addAll(newComments);
+    List<JsonObject> changes = new ArrayList<>();
+    for (Comment comment : storedComments) {
+      changes.add(toChange(comment));
+    }
+    append(changes);
+    return storedComments;
+  }
+
+  @Override
+  public Map<Long, Comment> getAll(Collection<Long> ids) {
+    return comments.getAll(ids);
+  }
+
+  @Override
+  public PageIterator list(Optional<Long> since, Optional<String> startCursor, int limit, Set<String> fields) {
+    return comments.list(since, startCursor, limit, fields);
+  }
+
+  @Override
+  public CommentPage listUpTo(long upTo, Optional<String> startCursor, int limit) {
+    return comments.listUpTo(upTo, startCursor, limit);
+  }
+
+  @Override
+  public void forEach(Consumer<Comment> action) {
+    comments.forEach(action);
+  }
+
+  @Override
+  public synchronized void deleteAll(Collection<Long> ids) {
+    comments.deleteAll(ids);
+    JsonArray deletedIds = new JsonArray();
+    ids.forEach(deletedIds::add);
+    JsonObject change = newChange(DELETE);
+    change.add(IDS, deletedIds);
+    append(change);
+  }
+
+  @Override
+  public synchronized void setImageBlobKeys(Map<Long, String> imageBlobKeys) {
+    comments.setImageBlobKeys(imageBlobKeys);
+    JsonObject keysById = new JsonObject();
+    imageBlobKeys.forEach((id, imageBlobKey) -> keysById.addProperty(String.valueOf(id), imageBlobKey));
+    JsonObject change = newChange(IMAGE_BLOB_KEYS);
+    change.add(KEYS_BY_ID, keysById);
+    append(change);
+  }
+
+  @Override
+  public synchronized Optional<Comment> completeSentiment(long id, long sentimentScore) {
+    Optional<Comment> scoredComment = comments.completeSentiment(id, sentimentScore);
+    if (scoredComment.isPresent()) {
+      JsonObject change = newChange(SCORE);
+      change.addProperty(ID, id);
+      change.addProperty(SENTIMENT_SCORE, sentimentScore);
+      append(change);
+    }
+    return scoredComment;
+  }
+
+  @Override
+  public List<Long> findPendingSentiment(long writtenBefore, int limit) {
+    return comments.findPendingSentiment(writtenBefore, limit);
+  }
+
+  @Override
+  public synchronized void recordDeletion(long deletedBefore) {
+    comments.recordDeletion(deletedBefore);
+    JsonObject change = newChange(DELETION);
+    change.addProperty(TIME_STAMP, deletedBefore);
+    append(change);
+  }
+
+  @Override
+  public Optional<Long> getDeletedSince(long since) {
+    return comments.getDeletedSince(since);
+  }
+
+  private void append(JsonObject change) {
+    List<JsonObject> changes = new ArrayList<>();
+    changes.add(change);
+    append(changes);
+  }
+
+  /** Writes {@code changes} to the journal, one per line, and flushes them to the file. */
+  private void append(List<JsonObject> changes) {
+    try {
+      for (JsonObject change : changes) {
+        journal.write(gson.toJson(change));
+        journal.write(System.lineSeparator());
+      }
+      journal.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not journal " + changes.size() + " comment changes.", e);
+    }
+  }
+
+  private static JsonObject newChange(String name) {
+    JsonObject change = new JsonObject();
+    change.addProperty(CHANGE, name);
+    return change;
+  }
+
+  /** Returns the change adding {@code comment}. Its sentiment score is pending until a score change. */
+  private JsonObject toChange(Comment comment) {
+    JsonObject change = newChange(ADD);
+    change.add(COMMENT, gson.toJsonTree(comment, Comment.class));
+    comment.imageBlobKey().ifPresent(imageBlobKey -> change.addProperty(IMAGE_BLOB_KEY, imageBlobKey));
+    return change;
+  }
+
+  /**
+   * Returns the comment added by {@code change}, with a neutral sentiment score. The URLs of
+   * each image size are made again from its serving URL, in case the sizes have changed.
+   */
+  private static Comment toComment(JsonObject change) {
+    Comment comment = SharedGson.getInstance().fromJson(change.get(COMMENT), Comment.class);
+    Comment.Builder commentBuilder = comment.toBuilder().setSentimentScore(0);
+    comment.imageUrl().ifPresent(imageUrl ->
+        commentBuilder.setImageUrls(Optional.of(ImageUrls.fromServingUrl(imageUrl))));
+    if (change.has(IMAGE_BLOB_KEY)) {
+      commentBuilder.setImageBlobKey(Optional.of(change.get(IMAGE_BLOB_KEY).getAsString()));
+    }
+    return commentBuilder.build();
+  }
+}
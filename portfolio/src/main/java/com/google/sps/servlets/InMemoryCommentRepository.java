@@ -0,0 +1,256 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentPage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Keeps comments in memory, for running locally without Datastore. Reads don't take a lock,
+ * so they may miss a write that is still in progress, as Datastore queries may.
+ */
+final class InMemoryCommentRepository implements CommentRepository {
+  // Separates the time stamp and id in a cursor.
+  private static final String CURSOR_SEPARATOR = ":";
+
+  // Comments ordered oldest first, ties broken by id.
+  private final ConcurrentSkipListMap<Position, Comment> comments = new ConcurrentSkipListMap<>();
+  private final Map<Long, Comment> commentsById = new ConcurrentHashMap<>();
+  private final Set<Long> pendingIds = ConcurrentHashMap.newKeySet();
+  // Times comments were deleted up to, latest last.
+  private final ConcurrentSkipListSet<Long> deletions = new ConcurrentSkipListSet<>();
+  private final AtomicLong lastId = new AtomicLong();
+
+  @Override
+  public List<Comment> addAll(List<Comment> newComments) {
+    List<Comment> storedComments = new ArrayList<>();
+    for (Comment comment : newComments) {
+      Comment storedComment = comment.toBuilder().setId(lastId.incrementAndGet()).setSentimentScore(0).build();
+      restore(storedComment, /* sentimentPending= */ true);
+      storedComments.add(storedComment);
+    }
+    return storedComments;
+  }
+
+  /** Stores {@code comment} under the id it already has, for repositories reloading comments. */
+  synchronized void restore(Comment comment, boolean sentimentPending) {
+    lastId.accumulateAndGet(comment.id(), Math::max);
+    if (sentimentPending) {
+      pendingIds.add(comment.id());
+    }
+    commentsById.put(comment.id(), comment);
+    comments.put(Position.of(comment), comment);
+  }
+
+  @Override
+  public Map<Long, Comment> getAll(Collection<Long> ids) {
+    Map<Long, Comment> foundComments = new HashMap<>();
+    for (long id : ids) {
+      Comment comment = commentsById.get(id);
+      if (comment != null) {
+        foundComments.put(id, comment);
+      }
+    }
+    return foundComments;
+  }
+
+  @Override
+  public PageIterator list(Optional<Long> since, Optional<String> startCursor, int limit, Set<String> fields) {
+    Position start = startCursor.isPresent() ? Position.fromCursor(startCursor.get()) : null;
+    if (since.isPresent()) {
+      // Every comment written at the since time sorts after this position.
+      Position sincePosition = new Position(since.get(), Long.MIN_VALUE);
+      if (start == null || sincePosition.compareTo(start) > 0) {
+        start = sincePosition;
+      }
+    }
+    NavigableMap<Position, Comment> remaining = start == null ? comments : comments.tailMap(start, false);
+    Iterator<Map.Entry<Position, Comment>> entries = remaining.entrySet().iterator();
+
+    return new PageIterator() {
+      private int readComments = 0;
+      private Position lastPosition;
+
+      @Override
+      public boolean hasNext() {
+        return readComments < limit && entries.hasNext();
+      }
+
+      @Override
+      public Comment next() {
+        Map.Entry<Position, Comment> entry = entries.next();
+        readComments++;
+        lastPosition = entry.getKey();
+        return entry.getValue();
+      }
+
+      @Override
+      public Optional<String> nextCursor() {
+        // A short page means there were no comments left, like a Datastore query.
+        if (readComments < limit) {
+          return Optional.empty();
+        }
+        return Optional.of(lastPosition.toCursor());
+      }
+    };
+  }
+
+  @Override
+  public CommentPage listUpTo(long upTo, Optional<String> startCursor, int limit) {
+    Position end = new Position(upTo, Long.MAX_VALUE);
+    NavigableMap<Position, Comment> remaining = startCursor.isPresent()
+        ? comments.subMap(Position.fromCursor(startCursor.get()), false, end, true)
+        : comments.headMap(end, true);
+
+    List<Comment> page = new ArrayList<>();
+    Position lastPosition = null;
+    for (Map.Entry<Position, Comment> entry : remaining.entrySet()) {
+      if (page.size() == limit) {
+        break;
+      }
+      page.add(entry.getValue());
+      lastPosition = entry.getKey();
+    }
+    Optional<String> nextCursor = page.size() < limit ? Optional.empty() : Optional.of(lastPosition.toCursor());
+    return CommentPage.builder().setComments(page).setNextCursor(nextCursor).build();
+  }
+
+  @Override
+  public void forEach(Consumer<Comment> action) {
+    comments.values().forEach(action);
+  }
+
+  @Override
+  public synchronized void deleteAll(Collection<Long> ids) {
+    for (long id : ids) {
+      Comment comment = commentsById.remove(id);
+      if (comment != null) {
+        comments.remove(Position.of(comment));
+        pendingIds.remove(id);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void setImageBlobKeys(Map<Long, String> imageBlobKeys) {
+    for (Map.Entry<Long, String> imageBlobKey : imageBlobKeys.entrySet()) {
+      Comment comment = commentsById.get(imageBlobKey.getKey());
+      if (comment == null) {
+        continue;
+      }
+      Comment updatedComment = comment.toBuilder().setImageBlobKey(Optional.of(imageBlobKey.getValue())).build();
+      commentsById.put(comment.id(), updatedComment);
+      comments.put(Position.of(updatedComment), updatedComment);
+    }
+  }
+
+  @Override
+  public synchronized Optional<Comment> completeSentiment(long id, long sentimentScore) {
+    Comment comment = commentsById.get(id);
+    if (comment == null || !pendingIds.remove(id)) {
+      return Optional.empty();
+    }
+
+    Comment scoredComment = comment.toBuilder().setSentimentScore(sentimentScore).build();
+    commentsById.put(id, scoredComment);
+    comments.put(Position.of(scoredComment), scoredComment);
+    return Optional.of(scoredComment);
+  }
+
+  @Override
+  public List<Long> findPendingSentiment(long writtenBefore, int limit) {
+    List<Long> ids = new ArrayList<>();
+    for (long id : pendingIds) {
+      if (ids.size() == limit) {
+        break;
+      }
+      Comment comment = commentsById.get(id);
+      if (comment != null && comment.timeStamp() < writtenBefore) {
+        ids.add(id);
+      }
+    }
+    return ids;
+  }
+
+  @Override
+  public void recordDeletion(long deletedBefore) {
+    deletions.add(deletedBefore);
+  }
+
+  @Override
+  public Optional<Long> getDeletedSince(long since) {
+    Long latestDeletion = deletions.isEmpty() ? null : deletions.last();
+    return latestDeletion != null && latestDeletion > since ? Optional.of(latestDeletion) : Optional.empty();
+  }
+
+  /** Where a comment sorts: by time stamp, then by id. */
+  private static final class Position implements Comparable<Position> {
+    private final long timeStamp;
+    private final long id;
+
+    private Position(long timeStamp, long id) {
+      this.timeStamp = timeStamp;
+      this.id = id;
+    }
+
+    private static Position of(Comment comment) {
+      return new Position(comment.timeStamp(), comment.id());
+    }
+
+    /** Returns the position written into {@code cursor} by {@link #toCursor}. */
+    private static Position fromCursor(String cursor) {
+      String[] parts = cursor.split(CURSOR_SEPARATOR);
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
+      }
+      // NumberFormatException is an IllegalArgumentException, as callers expect.
+      return new Position(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+    }
+
+    private String toCursor() {
+      return timeStamp + CURSOR_SEPARATOR + id;
+    }
+
+    @Override
+    public int compareTo(Position other) {
+      int byTimeStamp = Long.compare(timeStamp, other.timeStamp);
+      return byTimeStamp != 0 ? byTimeStamp : Long.compare(id, other.id);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Position && compareTo((Position) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(timeStamp) * 31 + Long.hashCode(id);
+    }
+  }
+}
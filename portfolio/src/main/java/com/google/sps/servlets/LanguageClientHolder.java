@@ -0,0 +1,131 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.language.v1.AnalyzeSentimentRequest;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Holds the one LanguageServiceClient of this instance. The client is thread-safe, so every
+ * request shares its gRPC channel instead of opening a new one per call. It is created on first
+ * use and shut down by {@link AppLifecycleListener} when the app is undeployed.
+ */
+final class LanguageClientHolder {
+  private static final Logger logger = Logger.getLogger(LanguageClientHolder.class.getName());
+
+  // Time calls still in flight get to finish when the app is undeployed.
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+  private static final LanguageClientHolder INSTANCE = new LanguageClientHolder();
+
+  private volatile LanguageServiceClient client;
+
+  // Metrics about the calls made over the shared channel.
+  private final AtomicLong clientsCreated = new AtomicLong();
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong failedCalls = new AtomicLong();
+  private final AtomicLong totalLatencyMillis = new AtomicLong();
+
+  private LanguageClientHolder() {}
+
+  /** Returns the holder shared by every servlet in this instance. */
+  static LanguageClientHolder getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Starts sentiment analysis of {@code document} over the shared client without waiting for
+   * it, so many calls can be in flight on the channel at once.
+   */
+  ApiFuture<AnalyzeSentimentResponse> analyzeSentimentAsync(Document document) throws IOException {
+    long startMillis = System.currentTimeMillis();
+    calls.incrementAndGet();
+    ApiFuture<AnalyzeSentimentResponse> response;
+    try {
+      AnalyzeSentimentRequest request = AnalyzeSentimentRequest.newBuilder().setDocument(document).build();
+      response = getClient().analyzeSentimentCallable().futureCall(request);
+    } catch (IOException | RuntimeException e) {
+      failedCalls.incrementAndGet();
+      throw e;
+    }
+
+    response.addListener(() -> {
+      totalLatencyMillis.addAndGet(System.currentTimeMillis() - startMillis);
+      try {
+        response.get();
+      } catch (ExecutionException e) {
+        failedCalls.incrementAndGet();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, Runnable::run);
+    return response;
+  }
+
+  /** Returns the shared client, creating it if this is the first call. */
+  private LanguageServiceClient getClient() throws IOException {
+    LanguageServiceClient currentClient = client;
+    if (currentClient != null) {
+      return currentClient;
+    }
+    synchronized (this) {
+      if (client == null) {
+        client = LanguageServiceClient.create();
+        clientsCreated.incrementAndGet();
+      }
+      return client;
+    }
+  }
+
+  /** Shuts the shared client down, waiting briefly for calls in flight. */
+  synchronized void shutdown() {
+    if (client == null) {
+      return;
+    }
+    client.shutdown();
+    try {
+      if (!client.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        client.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      client.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    client = null;
+    logger.info("Language client shut down. " + getMetrics());
+  }
+
+  /** Returns counts and average latency of the calls made so far. */
+  Map<String, Object> getMetrics() {
+    long callCount = calls.get();
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    metrics.put("clientsCreated", clientsCreated.get());
+    metrics.put("clientOpen", client != null && !client.isShutdown());
+    metrics.put("calls", callCount);
+    metrics.put("failedCalls", failedCalls.get());
+    metrics.put("averageLatencyMillis", callCount == 0 ? 0 : totalLatencyMillis.get() / callCount);
+    return metrics;
+  }
+}
@@ -0,0 +1,193 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scores sentiment in-process from a list of weighted words, so comments can be scored without
+ * a network call. A negating word flips the words shortly after it, and an intensifying word
+ * strengthens the word right after it. The summed weights are squashed into -100 to 100.
+ *
+ * <p>Words are matched against the text in place, without copying them into strings, so
+ * scoring a comment allocates almost nothing.
+ */
+final class LexiconSentimentEngine implements SentimentEngine {
+  // Word weights from -4, most negative, to 4, most positive.
+  private static final String[] WEIGHTED_WORDS = {
+    "amazing", "4", "awesome", "4", "brilliant", "4", "excellent", "4", "fantastic", "4",
+    "incredible", "4", "love", "3", "loved", "3", "loves", "3", "outstanding", "4", "perfect", "4",
+    "wonderful", "4", "beautiful", "3", "best", "3", "delightful", "3", "great", "3", "superb", "4",
+    "impressive", "3", "enjoy", "2", "enjoyed", "2", "fun", "2", "glad", "2", "good", "2",
+    "happy", "3", "helpful", "2", "interesting", "2", "like", "1", "liked", "2", "nice", "2",
+    "cool", "2", "clean", "1", "easy", "1", "thanks", "2", "thank", "2", "useful", "2",
+    "recommend", "2", "well", "1", "fine", "1", "ok", "1", "okay", "1", "better", "1",
+    "awful", "-4", "horrible", "-4", "terrible", "-4", "worst", "-4", "hate", "-3", "hated", "-3",
+    "disgusting", "-4", "useless", "-3", "bad", "-3", "boring", "-2", "broken", "-2", "ugly", "-3",
+    "poor", "-2", "sad", "-2", "annoying", "-2", "confusing", "-2", "disappointing", "-3",
+    "disappointed", "-3", "hard", "-1", "slow", "-1", "wrong", "-2", "worse", "-2", "fail", "-2",
+    "failed", "-2", "mess", "-2", "angry", "-3", "stupid", "-3", "dislike", "-2", "meh", "-1",
+  };
+  // Words flipping the sentiment of the words after them.
+  private static final String[] NEGATING_WORDS = {
+    "not", "no", "never", "nothing", "nobody", "neither", "nor", "without", "hardly",
+    "dont", "don't", "doesnt", "doesn't", "didnt", "didn't", "isnt", "isn't", "wasnt", "wasn't",
+    "arent", "aren't", "cant", "can't", "cannot", "wont", "won't", "shouldnt", "shouldn't",
+  };
+  // Words strengthening the word right after them.
+  private static final String[] INTENSIFYING_WORDS = {
+    "very", "really", "so", "extremely", "super", "totally", "absolutely", "incredibly", "truly",
+  };
+
+  private static final int NEUTRAL = 0;
+  private static final int WEIGHTED = 1;
+  private static final int NEGATING = 2;
+  private static final int INTENSIFYING = 3;
+
+  // Number of words after a negating word that are flipped.
+  private static final int NEGATION_WINDOW = 3;
+  // Factor applied to a flipped word, since "not good" is weaker than "bad".
+  private static final double NEGATION_FACTOR = -0.75;
+  // Factor applied to a word after an intensifying word.
+  private static final double INTENSIFIER_FACTOR = 1.5;
+  // The larger this is, the more weight is needed to approach the ends of the scale.
+  private static final double SQUASH_ALPHA = 15;
+
+  // Open addressing table of every listed word, sized to a power of two at most half full.
+  private static final char[][] TABLE_WORDS;
+  private static final int[] TABLE_KINDS;
+  private static final int[] TABLE_WEIGHTS;
+
+  static {
+    int wordCount = WEIGHTED_WORDS.length / 2 + NEGATING_WORDS.length + INTENSIFYING_WORDS.length;
+    int tableSize = Integer.highestOneBit(wordCount * 2) * 2;
+    TABLE_WORDS = new char[tableSize][];
+    TABLE_KINDS = new int[tableSize];
+    TABLE_WEIGHTS = new int[tableSize];
+    for (int i = 0; i < WEIGHTED_WORDS.length; i += 2) {
+      addWord(WEIGHTED_WORDS[i], WEIGHTED, Integer.parseInt(WEIGHTED_WORDS[i + 1]));
+    }
+    for (String word : NEGATING_WORDS) {
+      addWord(word, NEGATING, 0);
+    }
+    for (String word : INTENSIFYING_WORDS) {
+      addWord(word, INTENSIFYING, 0);
+    }
+  }
+
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong totalLatencyNanos = new AtomicLong();
+
+  @Override
+  public long score(String text) {
+    long startNanos = System.nanoTime();
+    long sentimentScore = scoreText(text);
+    calls.incrementAndGet();
+    totalLatencyNanos.addAndGet(System.nanoTime() - startNanos);
+    return sentimentScore;
+  }
+
+  @Override
+  public Map<String, Object> getMetrics() {
+    long callCount = calls.get();
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    metrics.put("engine", LOCAL_ENGINE);
+    metrics.put("calls", callCount);
+    metrics.put("averageLatencyMicros", callCount == 0 ? 0 : totalLatencyNanos.get() / callCount / 1000);
+    return metrics;
+  }
+
+  /** Returns the sentiment score of {@code text} from -100 to 100. */
+  static long scoreText(String text) {
+    double sum = 0;
+    int negatedWords = 0;
+    double nextWordFactor = 1;
+    int wordStart = -1;
+    int wordHash = 0;
+    for (int i = 0; i <= text.length(); i++) {
+      char c = i < text.length() ? Character.toLowerCase(text.charAt(i)) : ' ';
+      if (Character.isLetterOrDigit(c) || (c == '\'' && wordStart >= 0)) {
+        if (wordStart < 0) {
+          wordStart = i;
+          wordHash = 0;
+        }
+        wordHash = 31 * wordHash + c;
+        continue;
+      }
+
+      if (wordStart >= 0) {
+        int slot = findSlot(text, wordStart, i, wordHash);
+        int kind = TABLE_WORDS[slot] == null ? NEUTRAL : TABLE_KINDS[slot];
+        if (kind == NEGATING) {
+          negatedWords = NEGATION_WINDOW;
+        } else if (kind == INTENSIFYING) {
+          nextWordFactor = INTENSIFIER_FACTOR;
+        } else {
+          if (kind == WEIGHTED) {
+            double weight = TABLE_WEIGHTS[slot] * nextWordFactor;
+            sum += negatedWords > 0 ? weight * NEGATION_FACTOR : weight;
+          }
+          nextWordFactor = 1;
+          negatedWords = Math.max(0, negatedWords - 1);
+        }
+        wordStart = -1;
+      }
+      // A negation doesn't carry past the end of its sentence or clause.
+      if (c == '.' || c == '!' || c == '?' || c == ',' || c == ';') {
+        negatedWords = 0;
+        nextWordFactor = 1;
+      }
+    }
+    return (long) (sum / Math.sqrt(sum * sum + SQUASH_ALPHA) * 100);
+  }
+
+  /**
+   * Returns the table slot holding the word {@code text[start, end)}, compared ignoring case,
+   * or the empty slot it would go in.
+   */
+  private static int findSlot(CharSequence text, int start, int end, int hash) {
+    int mask = TABLE_WORDS.length - 1;
+    int slot = spread(hash) & mask;
+    while (TABLE_WORDS[slot] != null && !matches(TABLE_WORDS[slot], text, start, end)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private static boolean matches(char[] word, CharSequence text, int start, int end) {
+    if (word.length != end - start) {
+      return false;
+    }
+    for (int i = 0; i < word.length; i++) {
+      if (word[i] != Character.toLowerCase(text.charAt(start + i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void addWord(String word, int kind, int weight) {
+    int slot = findSlot(word, 0, word.length(), word.hashCode());
+    TABLE_WORDS[slot] = word.toCharArray();
+    TABLE_KINDS[slot] = kind;
+    TABLE_WEIGHTS[slot] = weight;
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+}
@@ -0,0 +1,87 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers items brought by concurrent request threads into batches. The thread bringing the
+ * first item of a batch waits up to a fixed window for others to join, or until the batch is
+ * full, and then gets the batch to process; every other thread leaves it to that one. The
+ * batcher needs no threads of its own, since only request threads can reach App Engine APIs.
+ */
+final class MicroBatcher<T> {
+  private final long windowMillis;
+  private final int maxBatchSize;
+  // Guards openBatch, and is notified once it is full.
+  private final Object batchLock = new Object();
+  // Items waiting for the thread that brought the first of them to process them.
+  private List<T> openBatch = new ArrayList<>();
+
+  /**
+   * Creates a batcher whose first item waits {@code windowMillis} for others, and whose
+   * batches are handed over as soon as they hold {@code maxBatchSize} items.
+   */
+  MicroBatcher(long windowMillis, int maxBatchSize) {
+    this.windowMillis = windowMillis;
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * Adds {@code item} to the open batch. If it is the first item of the batch, waits until
+   * the batch is full or its window has passed and returns it to be processed; otherwise
+   * returns null, leaving the batch to the thread that opened it.
+   */
+  List<T> join(T item) {
+    synchronized (batchLock) {
+      List<T> batch = openBatch;
+      batch.add(item);
+      if (batch.size() > 1) {
+        if (batch.size() >= maxBatchSize) {
+          openBatch = new ArrayList<>();
+          batchLock.notifyAll();
+        }
+        return null;
+      }
+
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+      long remainingNanos;
+      while (openBatch == batch && (remainingNanos = deadline - System.nanoTime()) > 0) {
+        try {
+          TimeUnit.NANOSECONDS.timedWait(batchLock, remainingNanos);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      if (openBatch == batch) {
+        openBatch = new ArrayList<>();
+      }
+      return batch;
+    }
+  }
+
+  /**
+   * Takes {@code item} back out of the open batch, so it won't be processed. Returns false if
+   * its batch was already handed over.
+   */
+  boolean withdraw(T item) {
+    synchronized (batchLock) {
+      return openBatch.remove(item);
+    }
+  }
+}
@@ -0,0 +1,172 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobInfoFactory;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.images.ImagesService;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.api.images.ServingUrlOptions;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Deletes uploaded images no comment refers to: images of deleted comments, uploads that were
+ * rejected, and uploads from forms that were never submitted. Images younger than
+ * {@code GRACE_PERIOD_MILLIS} are kept, since their comment may not be stored yet. Run by cron
+ * through {@link OrphanedImageSweepServlet}, since only request threads can reach Blobstore.
+ */
+final class OrphanedImageSweeper {
+  private static final Logger logger = Logger.getLogger(OrphanedImageSweeper.class.getName());
+
+  // Age an unreferenced image must reach before it is deleted.
+  private static final long GRACE_PERIOD_MILLIS = 24 * 60 * 60 * 1000;
+  // Images checked, and orphans deleted, per page.
+  private static final int BLOB_PAGE_SIZE = 500;
+
+  private static final OrphanedImageSweeper INSTANCE = new OrphanedImageSweeper();
+
+  private OrphanedImageSweeper() {}
+
+  /** Returns the sweeper shared by every servlet in this instance. */
+  static OrphanedImageSweeper getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Deletes every image older than the grace period that no comment refers to, and returns how
+   * many were deleted. Throws if an image couldn't be checked, leaving the rest to the next sweep.
+   */
+  int sweep() {
+    long cutoff = System.currentTimeMillis() - GRACE_PERIOD_MILLIS;
+    References references = collectReferences();
+
+    BlobInfoFactory blobInfoFactory = new BlobInfoFactory();
+    BlobKey lastKey = null;
+    int deletedImages = 0;
+    boolean morePages = true;
+    while (morePages) {
+      Iterator<BlobInfo> blobInfos =
+          lastKey == null ? blobInfoFactory.queryBlobInfos() : blobInfoFactory.queryBlobInfosAfter(lastKey);
+      List<BlobInfo> candidates = new ArrayList<>();
+      int pageSize = 0;
+      while (pageSize < BLOB_PAGE_SIZE && blobInfos.hasNext()) {
+        BlobInfo blobInfo = blobInfos.next();
+        lastKey = blobInfo.getBlobKey();
+        pageSize++;
+        if (blobInfo.getCreation().getTime() < cutoff
+            && !references.blobKeys.contains(blobInfo.getBlobKey().getKeyString())) {
+          candidates.add(blobInfo);
+        }
+      }
+      morePages = blobInfos.hasNext();
+
+      List<BlobKey> orphans = new ArrayList<>();
+      for (BlobInfo blobInfo : references.claimLegacy(candidates)) {
+        orphans.add(blobInfo.getBlobKey());
+      }
+      if (!orphans.isEmpty()) {
+        BlobstoreServiceFactory.getBlobstoreService().delete(orphans.toArray(new BlobKey[0]));
+        deletedImages += orphans.size();
+      }
+    }
+    logger.info("Deleted " + deletedImages + " orphaned images.");
+    return deletedImages;
+  }
+
+  /** Reads the image every comment refers to. */
+  private static References collectReferences() {
+    References references = new References();
+    CommentRepository.getInstance().forEach(comment -> {
+      if (comment.imageBlobKey().isPresent()) {
+        references.blobKeys.add(comment.imageBlobKey().get());
+      } else if (comment.imageUrl().isPresent()) {
+        references.legacyIds.put(comment.imageUrl().get(), comment.id());
+        references.newestLegacyTimeStamp = Math.max(references.newestLegacyTimeStamp, comment.timeStamp());
+      }
+    });
+    return references;
+  }
+
+  /**
+   * Images comments refer to. Comments written before blob keys were stored only have the path of
+   * a serving URL; they get their key the first time a sweep finds their image.
+   */
+  private static final class References {
+    private final Set<String> blobKeys = new HashSet<>();
+    // Ids of comments without a blob key, by the path of their serving URL.
+    private final Map<String, Long> legacyIds = new HashMap<>();
+    private long newestLegacyTimeStamp = Long.MIN_VALUE;
+
+    /**
+     * Matches {@code blobInfos}, none of which a comment refers to by key, against comments that
+     * only have a URL, stores the key of every match with one write, and returns the rest. Only
+     * images uploaded before the newest such comment are looked up, since each lookup is a call
+     * that also creates a serving URL for the image.
+     */
+    private List<BlobInfo> claimLegacy(List<BlobInfo> blobInfos) {
+      List<BlobInfo> unclaimed = new ArrayList<>();
+      Map<Long, String> claimedKeys = new HashMap<>();
+      ImagesService imagesService = ImagesServiceFactory.getImagesService();
+      for (BlobInfo blobInfo : blobInfos) {
+        if (legacyIds.isEmpty() || blobInfo.getCreation().getTime() > newestLegacyTimeStamp) {
+          unclaimed.add(blobInfo);
+          continue;
+        }
+
+        Long id;
+        try {
+          String servingUrl =
+              imagesService.getServingUrl(ServingUrlOptions.Builder.withBlobKey(blobInfo.getBlobKey()));
+          // Comments store the path of the serving URL, as DataServlet does.
+          id = legacyIds.remove(toPath(servingUrl));
+        } catch (IllegalArgumentException e) {
+          // Not an image, so no comment can show it.
+          id = null;
+        }
+        if (id == null) {
+          unclaimed.add(blobInfo);
+        } else {
+          String blobKey = blobInfo.getBlobKey().getKeyString();
+          claimedKeys.put(id, blobKey);
+          blobKeys.add(blobKey);
+        }
+      }
+
+      if (!claimedKeys.isEmpty()) {
+        CommentRepository.getInstance().setImageBlobKeys(claimedKeys);
+      }
+      return unclaimed;
+    }
+
+    private static String toPath(String servingUrl) {
+      try {
+        return new URL(servingUrl).getPath();
+      } catch (MalformedURLException e) {
+        return servingUrl;
+      }
+    }
+  }
+}
@@ -0,0 +1,52 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet running the push tasks added by {@link SentimentScorer#submit}, each scoring a batch of
+ * pending comments. A batch with comments that couldn't be scored is answered with an error, so
+ * the queue runs the task again after a backoff.
+ */
+@WebServlet(SentimentScorer.SCORE_URL)
+public class ScoreCommentServlet extends HttpServlet {
+  private static final Logger logger = Logger.getLogger(ScoreCommentServlet.class.getName());
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!TaskRequests.isFromQueue(request)) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN, "Only the task queue may score comments.");
+      return;
+    }
+
+    boolean allScored;
+    try {
+      allScored = SentimentScorer.getInstance().scorePending();
+    } catch (RuntimeException e) {
+      logger.log(Level.INFO, "Could not score pending comments, the queue tries again.", e);
+      allScored = false;
+    }
+    if (!allScored) {
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Some comments not scored.");
+    }
+  }
+}
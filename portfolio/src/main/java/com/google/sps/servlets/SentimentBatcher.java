@@ -0,0 +1,223 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.language.v1.Document;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends batches of texts to the Natural Language API. Batches are the texts of the scoring tasks
+ * the {@link SentimentScorer} leases together. Texts repeated within a batch are only sent once,
+ * and the calls of a batch are pipelined over the shared channel instead of waiting on each
+ * other. The API scores one document per call, so a batch still costs one call per distinct text.
+ *
+ * <p>Calls are guarded so a slow or failing API can't pile up work: callers stop waiting
+ * after {@code CALL_DEADLINE_MILLIS} and cancel the calls, at most {@code MAX_CALLS_IN_FLIGHT}
+ * calls run at once, and a {@link CircuitBreaker} stops calls after repeated failures. Texts
+ * refused by these guards fail right away, leaving their comments pending with a neutral score.
+ */
+final class SentimentBatcher {
+  private static final Logger logger = Logger.getLogger(SentimentBatcher.class.getName());
+
+  // Time the calls of a batch may take before they are cancelled.
+  private static final long CALL_DEADLINE_MILLIS = 5000;
+  // Calls allowed in flight at once before new texts are refused.
+  private static final int MAX_CALLS_IN_FLIGHT = 10;
+  // Failures in a row that stop calls, and how long they stay stopped.
+  private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+  private static final long CIRCUIT_OPEN_MILLIS = 30 * 1000;
+
+  private static final SentimentBatcher INSTANCE = new SentimentBatcher(SentimentBatcher::callLanguageApi,
+      CALL_DEADLINE_MILLIS, new CircuitBreaker(CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_MILLIS));
+
+  private final SentimentCall call;
+  private final long callDeadlineMillis;
+  private final CircuitBreaker circuitBreaker;
+  private final Semaphore callPermits = new Semaphore(MAX_CALLS_IN_FLIGHT);
+  private final AtomicLong refusedCalls = new AtomicLong();
+  private final AtomicLong timedOutCalls = new AtomicLong();
+
+  /**
+   * Creates a batcher starting calls with {@code call}, cancelling them after
+   * {@code callDeadlineMillis} and guarding them with {@code circuitBreaker}. Tests pass a fake call.
+   */
+  SentimentBatcher(SentimentCall call, long callDeadlineMillis, CircuitBreaker circuitBreaker) {
+    this.call = call;
+    this.callDeadlineMillis = callDeadlineMillis;
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  /** Starts scoring one text, without waiting for the score. */
+  interface SentimentCall {
+    ApiFuture<Long> start(String text) throws IOException;
+  }
+
+  /** Starts scoring {@code text} with the Natural Language API over the shared client. */
+  private static ApiFuture<Long> callLanguageApi(String text) throws IOException {
+    Document doc = Document.newBuilder().setContent(text).setType(Document.Type.PLAIN_TEXT).build();
+    // Cancelling the returned future cancels the call.
+    return ApiFutures.transform(LanguageClientHolder.getInstance().analyzeSentimentAsync(doc),
+        response -> (long) (response.getDocumentSentiment().getScore() * 100), Runnable::run);
+  }
+
+  /** Returns the batcher shared by every servlet in this instance. */
+  static SentimentBatcher getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the sentiment score of {@code text}, ranging from -100 to 100.
+   * @throws CompletionException if the text couldn't be scored. Its cause is a
+   *     {@link RejectedExecutionException} if the guards refused the call, or a
+   *     {@link TimeoutException} if the call took over {@code CALL_DEADLINE_MILLIS}.
+   */
+  long score(String text) {
+    List<PendingText> batch = send(Collections.singleton(text));
+    return await(batch.get(0), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(callDeadlineMillis));
+  }
+
+  /**
+   * Returns the sentiment scores of {@code texts} by text, leaving out texts that couldn't be
+   * scored. Every call of the batch shares one deadline.
+   */
+  Map<String, Long> scoreAll(Collection<String> texts) {
+    List<PendingText> batch = send(new LinkedHashSet<>(texts));
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(callDeadlineMillis);
+    Map<String, Long> scores = new HashMap<>();
+    for (PendingText pendingText : batch) {
+      try {
+        scores.put(pendingText.text, await(pendingText, deadlineNanos));
+      } catch (CompletionException e) {
+        logger.log(Level.INFO, "Could not score a text of the batch.", e.getCause());
+      }
+    }
+    return scores;
+  }
+
+  /** Waits for the score of {@code pendingText}, cancelling its call once {@code deadlineNanos} passes. */
+  private long await(PendingText pendingText, long deadlineNanos) {
+    try {
+      return pendingText.score.get(Math.max(deadlineNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      ApiFuture<Long> startedCall = pendingText.call;
+      if (startedCall != null && startedCall.cancel(true)) {
+        timedOutCalls.incrementAndGet();
+      }
+      throw new CompletionException(new TimeoutException("Sentiment call took over " + callDeadlineMillis + " ms."));
+    } catch (ExecutionException e) {
+      throw new CompletionException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CompletionException(e);
+    }
+  }
+
+  /** Returns counts of the calls refused or cancelled by the guards, and the circuit state. */
+  Map<String, Object> getMetrics() {
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    metrics.put("circuitState", circuitBreaker.getState());
+    metrics.put("refusedCalls", refusedCalls.get());
+    metrics.put("timedOutCalls", timedOutCalls.get());
+    return metrics;
+  }
+
+  /** Starts one call per text in {@code distinctTexts} and returns the texts waiting for them. */
+  private List<PendingText> send(Collection<String> distinctTexts) {
+    List<PendingText> batch = new ArrayList<>();
+    for (String text : distinctTexts) {
+      PendingText pendingText = new PendingText(text);
+      batch.add(pendingText);
+      if (!callPermits.tryAcquire()) {
+        refuse(pendingText, "Too many sentiment calls in flight.");
+        continue;
+      }
+      if (!circuitBreaker.allowRequest()) {
+        callPermits.release();
+        refuse(pendingText, "Sentiment calls are stopped after repeated failures.");
+        continue;
+      }
+
+      ApiFuture<Long> response;
+      try {
+        response = call.start(text);
+      } catch (IOException | RuntimeException e) {
+        callPermits.release();
+        circuitBreaker.recordFailure();
+        pendingText.score.completeExceptionally(e);
+        continue;
+      }
+
+      pendingText.call = response;
+      response.addListener(() -> {
+        callPermits.release();
+        try {
+          long score = response.get();
+          circuitBreaker.recordSuccess();
+          pendingText.score.complete(score);
+        } catch (CancellationException e) {
+          circuitBreaker.recordFailure();
+          pendingText.score.completeExceptionally(
+              new TimeoutException("Sentiment call took over " + callDeadlineMillis + " ms."));
+        } catch (ExecutionException e) {
+          circuitBreaker.recordFailure();
+          pendingText.score.completeExceptionally(e.getCause());
+        } catch (InterruptedException e) {
+          // Counted as a failure, or a trial call of a half open circuit would never finish.
+          circuitBreaker.recordFailure();
+          Thread.currentThread().interrupt();
+          pendingText.score.completeExceptionally(e);
+        }
+      }, Runnable::run);
+    }
+    return batch;
+  }
+
+  private void refuse(PendingText pendingText, String reason) {
+    refusedCalls.incrementAndGet();
+    pendingText.score.completeExceptionally(new RejectedExecutionException(reason));
+  }
+
+  /** Text waiting to be scored along with the future its caller holds and the call scoring it. */
+  private static class PendingText {
+    private final String text;
+    private final CompletableFuture<Long> score = new CompletableFuture<>();
+    private volatile ApiFuture<Long> call;
+
+    private PendingText(String text) {
+      this.text = text;
+    }
+  }
+}
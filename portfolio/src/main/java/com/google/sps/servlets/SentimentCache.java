@@ -0,0 +1,136 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of sentiment scores keyed by a hash of the normalized comment text, so repeated
+ * comments are only scored once. Scores are kept in an in-memory LRU in front of Datastore,
+ * which keeps them across instance restarts.
+ */
+final class SentimentCache {
+  private static final String SENTIMENT_CACHE_ENTRY = "SentimentCacheEntry";
+  private static final String SENTIMENT_SCORE = "sentimentScore";
+
+  // Number of scores kept in memory before the least recently used one is evicted.
+  private static final int MAX_MEMORY_ENTRIES = 10000;
+
+  private static final SentimentCache INSTANCE = new SentimentCache();
+
+  private final Map<String, Long> memoryEntries =
+      new LinkedHashMap<String, Long>(16, 0.75f, /* accessOrder= */ true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+          return size() > MAX_MEMORY_ENTRIES;
+        }
+      };
+
+  private final AtomicLong memoryHits = new AtomicLong();
+  private final AtomicLong datastoreHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  private SentimentCache() {}
+
+  /** Returns the cache shared by every servlet in this instance. */
+  static SentimentCache getInstance() {
+    return INSTANCE;
+  }
+
+  /** Returns the cached score of {@code commentText}, or an empty optional if it was never scored. */
+  Optional<Long> get(String commentText) {
+    String hash = hash(commentText);
+    synchronized (memoryEntries) {
+      Long score = memoryEntries.get(hash);
+      if (score != null) {
+        memoryHits.incrementAndGet();
+        return Optional.of(score);
+      }
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    try {
+      long score = (long) datastore.get(getKey(hash)).getProperty(SENTIMENT_SCORE);
+      datastoreHits.incrementAndGet();
+      putInMemory(hash, score);
+      return Optional.of(score);
+    } catch (EntityNotFoundException e) {
+      misses.incrementAndGet();
+      return Optional.empty();
+    }
+  }
+
+  /** Caches {@code sentimentScore} as the score of {@code commentText}. */
+  void put(String commentText, long sentimentScore) {
+    String hash = hash(commentText);
+    putInMemory(hash, sentimentScore);
+
+    Entity entry = new Entity(getKey(hash));
+    entry.setUnindexedProperty(SENTIMENT_SCORE, sentimentScore);
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    datastore.put(entry);
+  }
+
+  /** Returns hit and miss counts of both tiers. */
+  Map<String, Object> getMetrics() {
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    metrics.put("sentimentCacheMemoryHits", memoryHits.get());
+    metrics.put("sentimentCacheDatastoreHits", datastoreHits.get());
+    metrics.put("sentimentCacheMisses", misses.get());
+    return metrics;
+  }
+
+  private void putInMemory(String hash, long sentimentScore) {
+    synchronized (memoryEntries) {
+      memoryEntries.put(hash, sentimentScore);
+    }
+  }
+
+  private static Key getKey(String hash) {
+    return KeyFactory.createKey(SENTIMENT_CACHE_ENTRY, hash);
+  }
+
+  /**
+   * Returns a hex SHA-256 hash of {@code commentText} after trimming, lowercasing and collapsing
+   * whitespace, so comments differing only in those ways share a score.
+   */
+  private static String hash(String commentText) {
+    String normalizedText = commentText.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      StringBuilder hash = new StringBuilder();
+      for (byte b : digest.digest(normalizedText.getBytes(StandardCharsets.UTF_8))) {
+        hash.append(String.format("%02x", b));
+      }
+      return hash.toString();
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+}
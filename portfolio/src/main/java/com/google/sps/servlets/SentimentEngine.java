@@ -0,0 +1,70 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+/** Scores the sentiment of comment text on a scale from -100, most negative, to 100, most positive. */
+interface SentimentEngine {
+  // System property naming the engine to use, set in appengine-web.xml.
+  String ENGINE_PROPERTY = "sentiment.engine";
+  // Engine calling the Cloud Natural Language API. Used when the property isn't set.
+  String CLOUD_ENGINE = "cloud";
+  // Engine scoring in-process with a word list.
+  String LOCAL_ENGINE = "local";
+
+  /**
+   * Returns the sentiment score of {@code text}, waiting for it on the calling thread.
+   * @throws CompletionException if the text couldn't be scored. Its cause is a
+   *     {@link java.util.concurrent.RejectedExecutionException} if the engine refused the call
+   *     while overloaded, so it should be tried again later.
+   */
+  long score(String text);
+
+  /**
+   * Returns the sentiment scores of {@code texts} by text, leaving out texts that couldn't be
+   * scored. Engines calling out send the texts together; by default they are scored one at a time.
+   */
+  default Map<String, Long> scoreAll(Collection<String> texts) {
+    Map<String, Long> scores = new HashMap<>();
+    for (String text : texts) {
+      try {
+        scores.put(text, score(text));
+      } catch (CompletionException e) {
+        // Left out, so the text is tried again later.
+      }
+    }
+    return scores;
+  }
+
+  /** Returns the name of the engine and counts and latency of the texts scored so far. */
+  Map<String, Object> getMetrics();
+
+  /** Returns the engine named by the {@code sentiment.engine} system property. */
+  static SentimentEngine fromConfig() {
+    String engineName = System.getProperty(ENGINE_PROPERTY, CLOUD_ENGINE);
+    switch (engineName) {
+      case CLOUD_ENGINE:
+        return new CloudSentimentEngine();
+      case LOCAL_ENGINE:
+        return new LexiconSentimentEngine();
+      default:
+        throw new IllegalStateException("Unknown " + ENGINE_PROPERTY + ": " + engineName);
+    }
+  }
+}
@@ -0,0 +1,183 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentCache;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Scores the sentiment of comments in tasks, so posting a comment only waits for its write.
+ * The {@link CommentRepository} stores comments with a pending, neutral score. Each comment
+ * gets a pull task holding its id, and a push task that has the {@link ScoreCommentServlet}
+ * lease up to {@code MAX_LEASED_TASKS} pull tasks and score their comments as one batch with
+ * the {@link SentimentEngine}. Comments posted while a batch is being scored wait in the pull
+ * queue, so batches grow with the rate comments arrive at. Comments that couldn't be scored
+ * are released to the next batch, and comments left pending once their tasks gave up, or
+ * whose task was never added, are queued again by a sweep cron runs.
+ */
+final class SentimentScorer {
+  private static final Logger logger = Logger.getLogger(SentimentScorer.class.getName());
+
+  // Pull queue holding the id of each comment waiting for a score, and push queue running the
+  // tasks that score them, both set up in queue.xml.
+  private static final String PENDING_QUEUE_NAME = "sentiment-pending";
+  private static final String QUEUE_NAME = "sentiment";
+  // Path of the servlet scoring a batch of pending comments.
+  static final String SCORE_URL = "/tasks/score-comment";
+  // Number of pending comments scored in one batch, and how long they are leased for.
+  private static final int MAX_LEASED_TASKS = 25;
+  private static final long LEASE_SECONDS = 60;
+  // Comments younger than this may still have a task being retried and are left out of a sweep.
+  // Matches the task-age-limit of the push queue.
+  private static final long SWEEP_MIN_AGE_MILLIS = 30 * 60 * 1000;
+  // Number of pending comments queued again per sweep, the most one batch add takes.
+  private static final int SWEEP_LIMIT = 100;
+
+  private static final SentimentScorer INSTANCE = new SentimentScorer();
+
+  private final SentimentEngine engine = SentimentEngine.fromConfig();
+
+  private SentimentScorer() {}
+
+  /** Returns the scorer shared by every servlet in this instance. */
+  static SentimentScorer getInstance() {
+    return INSTANCE;
+  }
+
+  /** Returns the engine comments are scored with. */
+  SentimentEngine getEngine() {
+    return engine;
+  }
+
+  /** Queues the stored comment with {@code commentId} to be scored. */
+  void submit(long commentId) {
+    try {
+      QueueFactory.getQueue(PENDING_QUEUE_NAME).add(newPendingTask(commentId));
+      QueueFactory.getQueue(QUEUE_NAME).add(newScoreTask());
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Could not queue comment " + commentId + ", leaving it to the next sweep.", e);
+    }
+  }
+
+  /**
+   * Leases up to {@code MAX_LEASED_TASKS} pending comments, scores them together with the
+   * configured engine and writes the scores back, waiting for them on the calling request
+   * thread. Tasks of comments that were scored, or deleted meanwhile, are deleted; the others
+   * are released at once.
+   * @return whether every leased comment was scored, so the calling task needn't be retried.
+   */
+  boolean scorePending() {
+    Queue pendingQueue = QueueFactory.getQueue(PENDING_QUEUE_NAME);
+    List<TaskHandle> tasks = pendingQueue.leaseTasks(LEASE_SECONDS, TimeUnit.SECONDS, MAX_LEASED_TASKS);
+    if (tasks.isEmpty()) {
+      return true;
+    }
+
+    // A comment may be queued twice when a sweep overlaps its first task.
+    Map<Long, List<TaskHandle>> tasksByCommentId = new HashMap<>();
+    List<TaskHandle> doneTasks = new ArrayList<>();
+    for (TaskHandle task : tasks) {
+      try {
+        long commentId = Long.parseLong(new String(task.getPayload(), StandardCharsets.UTF_8));
+        tasksByCommentId.computeIfAbsent(commentId, id -> new ArrayList<>()).add(task);
+      } catch (NumberFormatException e) {
+        // Retrying can't fix the task, so it is deleted.
+        logger.warning("Dropping sentiment task without a valid comment id.");
+        doneTasks.add(task);
+      }
+    }
+
+    Map<Long, Comment> comments = CommentRepository.getInstance().getAll(tasksByCommentId.keySet());
+    Set<String> texts = new HashSet<>();
+    comments.values().forEach(comment -> texts.add(comment.commentText()));
+    Map<String, Long> scores = engine.scoreAll(texts);
+
+    List<TaskHandle> failedTasks = new ArrayList<>();
+    tasksByCommentId.forEach((commentId, commentTasks) -> {
+      Comment comment = comments.get(commentId);
+      if (comment == null) {
+        // The comment was deleted before it was scored.
+        doneTasks.addAll(commentTasks);
+      } else if (scores.containsKey(comment.commentText())) {
+        writeScore(commentId, scores.get(comment.commentText()));
+        doneTasks.addAll(commentTasks);
+      } else {
+        failedTasks.addAll(commentTasks);
+      }
+    });
+
+    if (!doneTasks.isEmpty()) {
+      pendingQueue.deleteTask(doneTasks);
+    }
+    for (TaskHandle task : failedTasks) {
+      pendingQueue.modifyTaskLease(task, 0, TimeUnit.SECONDS);
+    }
+    return failedTasks.isEmpty();
+  }
+
+  /** Writes {@code sentimentScore} to the comment with {@code commentId} if it is still pending. */
+  private void writeScore(long commentId, long sentimentScore) {
+    // Only the first score written for a comment moves it in the stats.
+    Optional<Comment> scoredComment = CommentRepository.getInstance().completeSentiment(commentId, sentimentScore);
+    if (!scoredComment.isPresent()) {
+      return;
+    }
+
+    CommentCache.getInstance().invalidate();
+    CommentStatsCounter.getInstance().recordScore(sentimentScore);
+  }
+
+  /** Queues comments that have been pending for a while, whose tasks must have given up. */
+  void sweepPending() {
+    long cutoff = System.currentTimeMillis() - SWEEP_MIN_AGE_MILLIS;
+    List<TaskOptions> tasks = new ArrayList<>();
+    for (long commentId : CommentRepository.getInstance().findPendingSentiment(cutoff, SWEEP_LIMIT)) {
+      tasks.add(newPendingTask(commentId));
+    }
+    if (tasks.isEmpty()) {
+      return;
+    }
+
+    QueueFactory.getQueue(PENDING_QUEUE_NAME).add(tasks);
+    List<TaskOptions> scoreTasks = new ArrayList<>();
+    for (int i = 0; i < tasks.size(); i += MAX_LEASED_TASKS) {
+      scoreTasks.add(newScoreTask());
+    }
+    QueueFactory.getQueue(QUEUE_NAME).add(scoreTasks);
+  }
+
+  private static TaskOptions newPendingTask(long commentId) {
+    return TaskOptions.Builder.withMethod(TaskOptions.Method.PULL).payload(String.valueOf(commentId));
+  }
+
+  private static TaskOptions newScoreTask() {
+    return TaskOptions.Builder.withUrl(SCORE_URL);
+  }
+}
@@ -0,0 +1,36 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import javax.servlet.http.HttpServletRequest;
+
+/** Tells whether a request to a task or cron servlet was sent by App Engine itself. */
+final class TaskRequests {
+  // Headers App Engine sets on push task and cron requests, and strips from outside requests.
+  private static final String QUEUE_NAME_HEADER = "X-AppEngine-QueueName";
+  private static final String CRON_HEADER = "X-Appengine-Cron";
+
+  private TaskRequests() {}
+
+  /** Returns whether {@code request} runs a task from a push queue. */
+  static boolean isFromQueue(HttpServletRequest request) {
+    return request.getHeader(QUEUE_NAME_HEADER) != null;
+  }
+
+  /** Returns whether {@code request} runs a job from cron.xml. */
+  static boolean isFromCron(HttpServletRequest request) {
+    return "true".equals(request.getHeader(CRON_HEADER));
+  }
+}
@@ -0,0 +1,170 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps Blobstore upload URLs created ahead of time in memcache, so the comments page doesn't
+ * wait on Blobstore for one. Every instance shares the pool, and each URL is handed out once.
+ * URLs are only handed out while young enough to leave the user time to fill in the form.
+ * The pool is filled by {@link WarmupServlet} when an instance starts, and topped back up by
+ * a push task once it runs low, so serving a URL never waits for more to be created.
+ */
+final class UploadUrlPool {
+  private static final Logger logger = Logger.getLogger(UploadUrlPool.class.getName());
+
+  // Path uploads are forwarded to once Blobstore has stored them.
+  private static final String UPLOAD_HANDLER = "/data";
+  // Memcache key the pool is kept under.
+  private static final String POOL_KEY = "UploadUrlPool";
+  // URLs kept ready.
+  private static final int POOL_SIZE = 10;
+  // Upload URLs stop working ten minutes after they are created, so they are handed out with
+  // at least five minutes to spare.
+  private static final long MAX_AGE_MILLIS = 5 * 60 * 1000;
+  // Number of URLs left in the pool at or below which it is refilled.
+  private static final int LOW_WATER_MARK = 3;
+  // Times the pool is read again when another request changed it in between.
+  private static final int MAX_ATTEMPTS = 3;
+
+  // Path of the servlet running refill tasks. Tasks are named after the minute they are added
+  // in, so the pool is refilled at most once a minute however many requests find it low.
+  static final String REFILL_URL = "/tasks/refill-upload-urls";
+  private static final String REFILL_TASK_PREFIX = "refill-upload-urls-";
+  private static final long REFILL_PERIOD_MILLIS = 60 * 1000;
+
+  private static final UploadUrlPool INSTANCE = new UploadUrlPool();
+
+  // Period the last refill task of this instance was added in, so it is only added once.
+  private volatile long lastRefillPeriod = -1;
+
+  private UploadUrlPool() {}
+
+  /** Returns the pool shared by every servlet in this instance. */
+  static UploadUrlPool getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns an upload URL no other client has been given. Creates one on the spot if the pool
+   * has run dry or memcache can't be reached.
+   */
+  String take() {
+    MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+    try {
+      for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+        IdentifiableValue pool = memcache.getIdentifiable(POOL_KEY);
+        List<PooledUrl> urls = getFreshUrls(pool);
+        if (urls.size() <= LOW_WATER_MARK) {
+          requestRefill();
+        }
+        if (urls.isEmpty()) {
+          break;
+        }
+        PooledUrl pooledUrl = urls.remove(0);
+        if (memcache.putIfUntouched(POOL_KEY, pool, urls)) {
+          return pooledUrl.url;
+        }
+      }
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Could not take an upload URL from the pool.", e);
+    }
+    return createUrl();
+  }
+
+  /**
+   * Adds a task refilling the pool unless one was added this minute, without waiting for the
+   * task to be stored.
+   */
+  private void requestRefill() {
+    long period = System.currentTimeMillis() / REFILL_PERIOD_MILLIS;
+    if (lastRefillPeriod == period) {
+      return;
+    }
+    lastRefillPeriod = period;
+    // Another instance may have added the task of this minute already, which the queue refuses.
+    QueueFactory.getDefaultQueue().addAsync(
+        TaskOptions.Builder.withUrl(REFILL_URL).taskName(REFILL_TASK_PREFIX + period));
+  }
+
+  /** Tops the pool back up to {@code POOL_SIZE} fresh URLs. Run by refill tasks and warmup requests. */
+  void refill() {
+    MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+    List<PooledUrl> createdUrls = new ArrayList<>();
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      IdentifiableValue pool = memcache.getIdentifiable(POOL_KEY);
+      List<PooledUrl> urls = getFreshUrls(pool);
+      while (urls.size() + createdUrls.size() < POOL_SIZE) {
+        createdUrls.add(new PooledUrl(createUrl(), System.currentTimeMillis()));
+      }
+      urls.addAll(createdUrls);
+
+      boolean stored = pool == null
+          ? memcache.put(POOL_KEY, urls, /* expires= */ null, SetPolicy.ADD_ONLY_IF_NOT_PRESENT)
+          : memcache.putIfUntouched(POOL_KEY, pool, urls);
+      if (stored) {
+        return;
+      }
+    }
+    logger.warning("Could not refill upload URLs while other requests kept taking them.");
+  }
+
+  /** Returns the URLs of {@code pool} young enough to hand out, oldest first. */
+  @SuppressWarnings("unchecked")
+  private static List<PooledUrl> getFreshUrls(IdentifiableValue pool) {
+    List<PooledUrl> urls = new ArrayList<>();
+    if (pool != null) {
+      for (PooledUrl pooledUrl : (List<PooledUrl>) pool.getValue()) {
+        if (!isStale(pooledUrl)) {
+          urls.add(pooledUrl);
+        }
+      }
+    }
+    return urls;
+  }
+
+  private static boolean isStale(PooledUrl pooledUrl) {
+    return System.currentTimeMillis() - pooledUrl.createdAt > MAX_AGE_MILLIS;
+  }
+
+  private static String createUrl() {
+    return BlobstoreServiceFactory.getBlobstoreService().createUploadUrl(UPLOAD_HANDLER);
+  }
+
+  /** Upload URL along with when it was created, stored in memcache. */
+  private static class PooledUrl implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String url;
+    private final long createdAt;
+
+    private PooledUrl(String url, long createdAt) {
+      this.url = url;
+      this.createdAt = createdAt;
+    }
+  }
+}
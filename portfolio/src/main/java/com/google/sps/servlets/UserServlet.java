@@ -15,11 +15,13 @@
 package com.google.sps.servlets;
 
 import com.google.sps.data.User;
+import com.google.sps.data.SharedGson;
 import com.google.gson.Gson;
 import java.util.Optional;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -34,13 +36,13 @@ public class UserServlet extends HttpServlet {
     response.setContentType("text/html");
     UserService userService = UserServiceFactory.getUserService();
     
-    Gson gson = new Gson();
+    Gson gson = SharedGson.getInstance();
     if (userService.isUserLoggedIn()) {
       String urlToRedirectToAfterUserLogsOut = "/html/comments.html";
       String logoutUrl = userService.createLogoutURL(urlToRedirectToAfterUserLogsOut);
 
       User newUser = User.builder().setLoggedIn(true).setLogoutUrl(Optional.of(logoutUrl)).build();
-      response.getWriter().println(gson.toJson(newUser));
+      sendUser(request, response, gson.toJson(newUser));
       return;
     }
     
@@ -48,6 +50,15 @@ public class UserServlet extends HttpServlet {
     String loginUrl = userService.createLoginURL(urlToRedirectToAfterUserLogsIn);
 
     User newUser = User.builder().setLoggedIn(false).setLoginUrl(Optional.of(loginUrl)).build();
-    response.getWriter().println(gson.toJson(newUser));
+    sendUser(request, response, gson.toJson(newUser));
+  }
+
+  /** Sends {@code json} as UTF-8, or 304 Not Modified if the client already has it. */
+  private void sendUser(HttpServletRequest request, HttpServletResponse response, String json) throws IOException {
+    byte[] body = json.getBytes(StandardCharsets.UTF_8);
+    response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+    if (!EntityTags.checkNotModified(request, response, body)) {
+      response.getOutputStream().write(body);
+    }
   }
 }
@@ -26,16 +26,157 @@ const states = {
   HIDE: 'none',
 }
 
+/**
+ * JSON responses already received from servlets, keyed by URL, along with the ETag
+ * they were sent with.
+ */
+const responseCache = new Map();
+
 getUserLoginData();
 populateBlobUrl();
 
+// Binary encoding of JSON data that servlets may send instead.
+const CBOR_TYPE = 'application/cbor';
+// Whether to ask for CBOR. A page of comments is about 14% smaller as CBOR, but slightly
+// larger once gzipped and slower to decode than with the browser's own JSON.parse, so
+// JSON stays the default.
+const REQUEST_CBOR = false;
+
+/**
+ * Fetches JSON from {@code url}, or its CBOR encoding if REQUEST_CBOR is set and the servlet
+ * offers one. Sends back the ETag of the last response for the same URL so the servlet can
+ * answer with 304 Not Modified, in which case the last response is reused.
+ */
+async function fetchJson(url) {
+  const cached = responseCache.get(url);
+  const headers = REQUEST_CBOR ? {'Accept': CBOR_TYPE + ', application/json;q=0.9, */*;q=0.8'} : {};
+  if (cached) {
+    headers['If-None-Match'] = cached.etag;
+  }
+  const response = await fetch(url, {headers: headers, cache: 'no-store'});
+  if (response.status == 304 && cached) {
+    return cached.json;
+  }
+
+  const contentType = response.headers.get('Content-Type') || '';
+  const json = contentType.startsWith(CBOR_TYPE)
+      ? decodeCbor(await response.arrayBuffer())
+      : await response.json();
+  const etag = response.headers.get('ETag');
+  if (etag != null) {
+    responseCache.set(url, {etag: etag, json: json});
+  } else {
+    responseCache.delete(url);
+  }
+  return json;
+}
+
+/**
+ * Decodes the CBOR item in {@code buffer} into the value JSON.parse would give for the same data.
+ * Supports the items servlets write: integers, text, arrays, maps, booleans, null and doubles.
+ */
+function decodeCbor(buffer) {
+  const view = new DataView(buffer);
+  const bytes = new Uint8Array(buffer);
+  const textDecoder = new TextDecoder();
+  let offset = 0;
+
+  // Reads the value or length that follows the first byte of an item.
+  function readArgument(info) {
+    if (info < 24) {
+      return info;
+    }
+    let value;
+    if (info == 24) {
+      value = bytes[offset];
+      offset += 1;
+    } else if (info == 25) {
+      value = view.getUint16(offset);
+      offset += 2;
+    } else if (info == 26) {
+      value = view.getUint32(offset);
+      offset += 4;
+    } else if (info == 27) {
+      value = view.getUint32(offset) * 2 ** 32 + view.getUint32(offset + 4);
+      offset += 8;
+    } else {
+      // Indefinite length.
+      value = -1;
+    }
+    return value;
+  }
+
+  function readItem() {
+    const initialByte = bytes[offset++];
+    const majorType = initialByte >> 5;
+    const info = initialByte & 0x1f;
+    if (majorType == 7) {
+      return readSimple(info);
+    }
+
+    const argument = readArgument(info);
+    switch (majorType) {
+      case 0:
+        return argument;
+      case 1:
+        return -1 - argument;
+      case 3: {
+        const text = textDecoder.decode(bytes.subarray(offset, offset + argument));
+        offset += argument;
+        return text;
+      }
+      case 4: {
+        const array = [];
+        while (argument < 0 ? bytes[offset] != 0xff : array.length < argument) {
+          array.push(readItem());
+        }
+        offset += argument < 0 ? 1 : 0;
+        return array;
+      }
+      case 5: {
+        const map = {};
+        let count = 0;
+        while (argument < 0 ? bytes[offset] != 0xff : count < argument) {
+          const key = readItem();
+          map[key] = readItem();
+          count++;
+        }
+        offset += argument < 0 ? 1 : 0;
+        return map;
+      }
+      default:
+        throw new Error('Unsupported CBOR major type ' + majorType);
+    }
+  }
+
+  function readSimple(info) {
+    if (info == 20) {
+      return false;
+    } else if (info == 21) {
+      return true;
+    } else if (info == 22) {
+      return null;
+    } else if (info == 26) {
+      const value = view.getFloat32(offset);
+      offset += 4;
+      return value;
+    } else if (info == 27) {
+      const value = view.getFloat64(offset);
+      offset += 8;
+      return value;
+    }
+    throw new Error('Unsupported CBOR simple value ' + info);
+  }
+
+  return readItem();
+}
+
 /**
  * Fetches user login data from servlet and adjusts comments section of portfolio
  * to hide comments if user is logged out.
  */
 async function getUserLoginData() {
-  const response = await fetch('/user-login');
-  const userData = await response.json();
+  const userData = await fetchJson('/user-login');
 
   var loginButtonContainer = document.getElementById('login-container');
   var commentForm = document.getElementById('comment-form');
@@ -52,7 +193,7 @@ async function getUserLoginData() {
     lineBreak.style.display = states.SHOW;
     
     /* Sets the logout link. */
-    logoutButtonForm.href = userData.logoutUrl.value;
+    logoutButtonForm.href = userData.logoutUrl;
     return;
   }
 
@@ -62,34 +203,213 @@ async function getUserLoginData() {
   lineBreak.style.display = states.HIDE;
 
   /* Sets the login link. */
-  loginButtonForm.href = userData.loginUrl.value;
+  loginButtonForm.href = userData.loginUrl;
 }
 
+/** Number of comments requested from the servlet at a time. */
+const COMMENTS_PAGE_SIZE = 20;
+
+/** Comment fields shown on the page, so the servlet can leave the rest out. */
+const COMMENT_FIELDS = 'id,commentText,email,timeStamp,imageUrls,sentimentScore';
+
+/** Cursor pointing at the next page of comments, or null if every page is loaded. */
+var nextCursor = null;
+
+/** Time stamp of the newest comment received, so only newer comments are asked for. */
+var newestTimeStamp = 0;
+
 /**
- * Fetches data from servlet and sets it in the comments section of portfolio.
+ * How far before the newest comment received refreshes start. Comments can be stored after
+ * a newer one when server clocks differ or writes are batched, and would be missed otherwise.
+ */
+const REFRESH_OVERLAP_MILLIS = 15000;
+
+/** Ids of the comments shown, so comments sent again by a refresh are skipped. */
+const shownCommentIds = new Set();
+
+/**
+ * Fetches the first page of data from servlet and sets it in the comments section of portfolio.
  * Called whenever comments section is loaded.
  */
 async function getData() {
-  const response = await fetch('/data');
-  const jsonData = await response.json();
-  
   const commentsListElement = document.getElementById('comments-container');
   commentsListElement.innerHTML = '';
-  for (comment of jsonData) {
-    if(comment.commentText != '' && comment.name != '') {
-      commentsListElement.appendChild(createCommentImageDiv(comment.commentText, comment.email, comment.timeStamp, comment.imageUrl, comment.sentimentScore));
+  nextCursor = null;
+  newestTimeStamp = 0;
+  shownCommentIds.clear();
+  await getMoreData();
+}
+
+/**
+ * Fetches the next page of data from servlet and appends it to the comments section
+ * of portfolio.
+ */
+async function getMoreData() {
+  var url = '/data?limit=' + COMMENTS_PAGE_SIZE + '&fields=' + COMMENT_FIELDS;
+  if (nextCursor != null) {
+    url += '&cursor=' + encodeURIComponent(nextCursor);
+  }
+  const jsonData = await fetchJson(url);
+  appendComments(jsonData.comments);
+
+  /* Only offer more comments if the servlet says there is another page. */
+  nextCursor = jsonData.nextCursor || null;
+  var moreButton = document.getElementById('more-button');
+  moreButton.style.display = nextCursor != null ? states.SHOW : states.HIDE;
+}
+
+/**
+ * Refreshes start at a multiple of this, so successive polls ask for the same URL and are
+ * answered from the servlet's cache, or with 304 Not Modified if nothing changed.
+ */
+const REFRESH_SINCE_STEP_MILLIS = 60000;
+
+/** Start of the last refresh, so its cached responses can be dropped once refreshes move on. */
+var lastRefreshSince = null;
+
+/**
+ * Fetches only the comments written or deleted since shortly before the newest comment shown
+ * and updates the comments section of portfolio with them.
+ */
+async function refreshData() {
+  const overlapStart = Math.max(newestTimeStamp - REFRESH_OVERLAP_MILLIS, 0);
+  const since = overlapStart - overlapStart % REFRESH_SINCE_STEP_MILLIS;
+  const refreshUrl = '/data?limit=' + COMMENTS_PAGE_SIZE + '&fields=' + COMMENT_FIELDS + '&since=';
+  if (lastRefreshSince != null && lastRefreshSince != since) {
+    forgetResponses(refreshUrl + lastRefreshSince);
+  }
+  lastRefreshSince = since;
+
+  var cursor = null;
+  do {
+    var url = refreshUrl + since;
+    if (cursor != null) {
+      url += '&cursor=' + encodeURIComponent(cursor);
+    }
+    const jsonData = await fetchJson(url);
+
+    if (jsonData.hasOwnProperty('deletedBefore')) {
+      removeCommentsBefore(jsonData.deletedBefore);
+    }
+
+    /* New comments come after any page not loaded yet, which will include them. */
+    if (nextCursor == null) {
+      appendComments(jsonData.comments);
+    }
+    cursor = jsonData.nextCursor || null;
+  } while (cursor != null && nextCursor == null);
+}
+
+/** Drops the cached responses for {@code pageUrl} and the pages after it. */
+function forgetResponses(pageUrl) {
+  for (const url of Array.from(responseCache.keys())) {
+    if (url == pageUrl || url.startsWith(pageUrl + '&')) {
+      responseCache.delete(url);
+    }
+  }
+}
+
+/**
+ * Appends {@code comments} to the comments section of portfolio, skipping comments
+ * without text. Comments already shown are replaced, since they may have been scored since.
+ */
+function appendComments(comments) {
+  const commentsListElement = document.getElementById('comments-container');
+  for (comment of comments) {
+    newestTimeStamp = Math.max(newestTimeStamp, comment.timeStamp);
+    if (shownCommentIds.has(comment.id)) {
+      replaceComment(comment);
+      continue;
+    }
+    shownCommentIds.add(comment.id);
+    if(comment.commentText != '') {
+      commentsListElement.appendChild(createCommentElement(comment));
       commentsListElement.appendChild(document.createElement('br'));
     }
   }
 }
 
+/** Replaces the comment shown with the id of {@code comment}, if it is on the page. */
+function replaceComment(comment) {
+  const commentsListElement = document.getElementById('comments-container');
+  const commentElement = commentsListElement.querySelector('[data-id="' + comment.id + '"]');
+  if (commentElement != null) {
+    commentElement.replaceWith(createCommentElement(comment));
+  }
+}
+
+/** Creates the element showing {@code comment}, tagged with its id and time stamp. */
+function createCommentElement(comment) {
+  const commentElement = createCommentImageDiv(comment.commentText, comment.email, comment.timeStamp, comment.imageUrls, comment.sentimentScore);
+  commentElement.dataset.timeStamp = comment.timeStamp;
+  commentElement.dataset.id = comment.id;
+  return commentElement;
+}
+
+// Time between refreshes while the comments section is open. Unchanged pages cost the
+// servlet a cache lookup and a 304 Not Modified.
+const REFRESH_POLL_MILLIS = 30000;
+
+/** Keeps the comments section of portfolio up to date by polling for changes. */
+function followComments() {
+  setInterval(refreshData, REFRESH_POLL_MILLIS);
+}
+
 /**
- * Deletes comments and refreshes portfolio with updated comments.
+ * Removes every comment written at or before {@code timeStamp} from the comments section
+ * of portfolio, along with the line break after it. Pages not loaded yet only held comments
+ * from before the deletion, so they are dropped too.
+ */
+function removeCommentsBefore(timeStamp) {
+  const commentsListElement = document.getElementById('comments-container');
+  for (const commentElement of Array.from(commentsListElement.children)) {
+    if (commentElement.dataset.timeStamp != undefined && Number(commentElement.dataset.timeStamp) <= timeStamp) {
+      shownCommentIds.delete(Number(commentElement.dataset.id));
+      commentElement.nextSibling.remove();
+      commentElement.remove();
+    }
+  }
+  nextCursor = null;
+  document.getElementById('more-button').style.display = states.HIDE;
+}
+
+// Time between checks on a running delete.
+const DELETE_STATUS_POLL_MILLIS = 1000;
+
+/**
+ * Starts deleting comments, shows its progress until it finishes and then
+ * refreshes portfolio with the comments changed since.
  */
 async function deleteData() {
+  const deleteButton = document.getElementById('delete-button');
+  deleteButton.disabled = true;
   const request = new Request('/delete-data', {method: 'POST'});
   const response = await fetch(request);
-  getData();
+  let status = await response.json();
+  showDeleteStatus(status);
+
+  while (status.state === 'RUNNING') {
+    await new Promise(resolve => setTimeout(resolve, DELETE_STATUS_POLL_MILLIS));
+    const statusResponse = await fetch('/delete-data/status');
+    status = await statusResponse.json();
+    showDeleteStatus(status);
+  }
+  deleteButton.disabled = false;
+  refreshData();
+}
+
+/**
+ * Shows how far the delete described by {@code status} has got.
+ */
+function showDeleteStatus(status) {
+  const deleteStatus = document.getElementById('delete-status');
+  if (status.state === 'RUNNING') {
+    deleteStatus.innerText = 'Deleting... ' + status.deletedComments + ' comments removed';
+  } else if (status.state === 'DONE') {
+    deleteStatus.innerText = 'Deleted ' + status.deletedComments + ' comments';
+  } else {
+    deleteStatus.innerText = 'Deleting stopped after ' + status.deletedComments + ' comments, try again';
+  }
 }
 
 /**
@@ -108,7 +428,7 @@ async function populateBlobUrl() {
  * left, an image if they uploaded one, and a horizonal line
  * to divide comments.
  */
-function createCommentImageDiv(text, email, timeStamp, imageUrl, sentimentScore) {
+function createCommentImageDiv(text, email, timeStamp, imageUrls, sentimentScore) {
   const imageCommentOuterDiv = document.createElement('div');
   const imageCommentDiv = document.createElement('div');
   const lineBreak = document.createElement('hr');
@@ -116,8 +436,8 @@ function createCommentImageDiv(text, email, timeStamp, imageUrl, sentimentScore)
   imageCommentDiv.id = 'img-comment-div';
   lineBreak.id = 'line';
   
-  if (imageUrl.hasOwnProperty('value') && imageUrl.value != '') {
-    imageCommentDiv.append(createImageDiv(imageUrl.value));
+  if (imageUrls) {
+    imageCommentDiv.append(createImageDiv(imageUrls));
   }
 
   imageCommentDiv.append(createCommentDiv(text, email, timeStamp, sentimentScore));
@@ -127,17 +447,27 @@ function createCommentImageDiv(text, email, timeStamp, imageUrl, sentimentScore)
   return imageCommentOuterDiv;
 }
 
+// Width, in pixels, of each image size the servlet sends a URL for.
+const IMAGE_WIDTHS = {thumbnail: 160, card: 480, full: 1600};
+// Share of the page width a comment image is shown at, matching #img-div.
+const IMAGE_DISPLAY_SIZE = '40vw';
+
 /**
  * Creates and returns a <div> element containing an <img>
- * that displays the image stored at {@code imageUrl}.
+ * that displays the image at the sizes in {@code imageUrls},
+ * letting the browser download the smallest one that looks sharp.
  */
-function createImageDiv(imageUrl) {
+function createImageDiv(imageUrls) {
   const imageDiv = document.createElement('div');
   const image = document.createElement('img');
 
   imageDiv.id = 'img-div';
   image.id = 'img';
-  image.src = imageUrl;
+  image.src = imageUrls.card;
+  image.srcset = Object.keys(IMAGE_WIDTHS)
+      .map(size => imageUrls[size] + ' ' + IMAGE_WIDTHS[size] + 'w')
+      .join(', ');
+  image.sizes = IMAGE_DISPLAY_SIZE;
   
   imageDiv.append(image);
 
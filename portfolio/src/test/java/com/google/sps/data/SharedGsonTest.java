@@ -0,0 +1,116 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSerializer;
+import java.util.Optional;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Checks that the hand-written adapters SharedGson uses write the same JSON as reflective Gson,
+ * which wrote comments and users before them, and read back what they write.
+ */
+@RunWith(JUnit4.class)
+public final class SharedGsonTest {
+  // Gson as it was before the hand-written adapters: reflection, with Optionals as their values.
+  // Image URLs are declared as the abstract AutoValue type, so they are reflected on through the
+  // generated class by a plain Gson.
+  private static final Gson REFLECTIVE_GSON = new GsonBuilder()
+      .registerTypeHierarchyAdapter(ImageUrls.class,
+          (JsonSerializer<ImageUrls>) (imageUrls, type, context) -> new Gson().toJsonTree(imageUrls))
+      .registerTypeAdapterFactory(new OptionalTypeAdapterFactory())
+      .create();
+
+  private static final Comment COMMENT_WITH_IMAGE = Comment.builder()
+      .setId(5629499534213120L)
+      .setName("Ada")
+      .setEmail("ada@example.com")
+      .setImageUrl(Optional.of("/serve/abc"))
+      .setImageUrls(Optional.of(ImageUrls.fromServingUrl("/serve/abc")))
+      .setImageBlobKey(Optional.of("blob-key"))
+      .setCommentText("Nice \"quotes\", a tab\tand an emoji 😀")
+      .setSentimentScore(-42)
+      .setTimeStamp(1593561600123L)
+      .build();
+  private static final Comment COMMENT_WITHOUT_IMAGE = Comment.builder()
+      .setId(1)
+      .setName("")
+      .setEmail("bob@example.com")
+      .setCommentText("")
+      .setSentimentScore(0)
+      .setTimeStamp(0)
+      .build();
+
+  @Test
+  public void commentWithImageMatchesReflection() {
+    assertEquals(reflectiveCommentJson(COMMENT_WITH_IMAGE), sharedJson(COMMENT_WITH_IMAGE));
+  }
+
+  @Test
+  public void commentWithoutImageMatchesReflection() {
+    assertEquals(reflectiveCommentJson(COMMENT_WITHOUT_IMAGE), sharedJson(COMMENT_WITHOUT_IMAGE));
+  }
+
+  @Test
+  public void loggedInUserMatchesReflection() {
+    User user = User.builder().setLoggedIn(true).setLogoutUrl(Optional.of("/_ah/logout?continue=%2F")).build();
+
+    assertEquals(JsonParser.parseString(REFLECTIVE_GSON.toJson(user)), sharedJson(user));
+  }
+
+  @Test
+  public void loggedOutUserMatchesReflection() {
+    User user = User.builder().setLoggedIn(false).setLoginUrl(Optional.of("/_ah/login?continue=%2F")).build();
+
+    assertEquals(JsonParser.parseString(REFLECTIVE_GSON.toJson(user)), sharedJson(user));
+  }
+
+  @Test
+  public void commentReadsBackWithoutBlobKey() {
+    Gson gson = SharedGson.getInstance();
+
+    Comment readComment = gson.fromJson(gson.toJson(COMMENT_WITH_IMAGE), Comment.class);
+
+    assertEquals(COMMENT_WITH_IMAGE.toBuilder().setImageBlobKey(Optional.empty()).build(), readComment);
+  }
+
+  @Test
+  public void userReadsBack() {
+    Gson gson = SharedGson.getInstance();
+    User user = User.builder().setLoggedIn(false).setLoginUrl(Optional.of("/login")).build();
+
+    assertEquals(user, gson.fromJson(gson.toJson(user), User.class));
+  }
+
+  /** Returns what reflective Gson writes for {@code comment}, less the Blobstore key it never sent. */
+  private static JsonElement reflectiveCommentJson(Comment comment) {
+    JsonObject json = JsonParser.parseString(REFLECTIVE_GSON.toJson(comment)).getAsJsonObject();
+    json.remove("imageBlobKey");
+    return json;
+  }
+
+  private static JsonElement sharedJson(Object value) {
+    return JsonParser.parseString(SharedGson.getInstance().toJson(value));
+  }
+}
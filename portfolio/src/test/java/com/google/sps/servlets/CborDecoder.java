@@ -0,0 +1,240 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.servlets;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Strict decoder of CBOR (RFC 8949) into the JSON tree the same data parses to, written from
+ * the specification independently of {@link CborWriter} so tests can check what it writes.
+ * Items JSON has no equivalent for, such as byte strings, tags and non-text map keys, and
+ * data that isn't well-formed, such as a misplaced break or trailing bytes, are rejected with
+ * IllegalArgumentException.
+ */
+final class CborDecoder {
+  private static final int BREAK = 0xff;
+
+  private final byte[] bytes;
+  private int position;
+
+  private CborDecoder(byte[] bytes) {
+    this.bytes = bytes;
+  }
+
+  /** Returns the JSON tree of the single CBOR item {@code bytes} holds. */
+  static JsonElement decode(byte[] bytes) {
+    CborDecoder decoder = new CborDecoder(bytes);
+    JsonElement element = decoder.readItem();
+    if (decoder.position != bytes.length) {
+      throw new IllegalArgumentException((bytes.length - decoder.position) + " bytes after the item.");
+    }
+    return element;
+  }
+
+  private JsonElement readItem() {
+    int initialByte = readByte();
+    if (initialByte == BREAK) {
+      throw new IllegalArgumentException("Break outside an indefinite-length item at " + (position - 1) + ".");
+    }
+    int majorType = initialByte >>> 5;
+    int info = initialByte & 0x1f;
+    switch (majorType) {
+      case 0:
+        return new JsonPrimitive(toLong(readArgument(info)));
+      case 1:
+        return new JsonPrimitive(-1 - toLong(readArgument(info)));
+      case 3:
+        return new JsonPrimitive(readText(info));
+      case 4:
+        return readArray(info);
+      case 5:
+        return readMap(info);
+      case 7:
+        return readSimple(info);
+      default:
+        throw new IllegalArgumentException("Major type " + majorType + " has no JSON equivalent.");
+    }
+  }
+
+  private JsonArray readArray(int info) {
+    JsonArray array = new JsonArray();
+    if (info == 31) {
+      while (!readBreak()) {
+        array.add(readItem());
+      }
+    } else {
+      for (long i = readArgument(info); i > 0; i--) {
+        array.add(readItem());
+      }
+    }
+    return array;
+  }
+
+  private JsonObject readMap(int info) {
+    JsonObject object = new JsonObject();
+    if (info == 31) {
+      while (!readBreak()) {
+        readEntry(object);
+      }
+    } else {
+      for (long i = readArgument(info); i > 0; i--) {
+        readEntry(object);
+      }
+    }
+    return object;
+  }
+
+  private void readEntry(JsonObject object) {
+    JsonElement key = readItem();
+    if (!key.isJsonPrimitive() || !key.getAsJsonPrimitive().isString()) {
+      throw new IllegalArgumentException("Map key " + key + " is not a text string.");
+    }
+    if (object.has(key.getAsString())) {
+      throw new IllegalArgumentException("Duplicate map key " + key + ".");
+    }
+    object.add(key.getAsString(), readItem());
+  }
+
+  /** Reads a text string, joining the chunks of an indefinite-length one. */
+  private String readText(int info) {
+    if (info != 31) {
+      int length = (int) toLong(readArgument(info));
+      if (length > bytes.length - position) {
+        throw new IllegalArgumentException("Text string runs past the end of the data.");
+      }
+      String text = decodeUtf8(bytes, position, length);
+      position += length;
+      return text;
+    }
+    StringBuilder text = new StringBuilder();
+    while (!readBreak()) {
+      int chunkByte = readByte();
+      if (chunkByte >>> 5 != 3 || (chunkByte & 0x1f) == 31) {
+        throw new IllegalArgumentException("Indefinite-length text holds a chunk that isn't definite text.");
+      }
+      text.append(readText(chunkByte & 0x1f));
+    }
+    return text.toString();
+  }
+
+  private JsonElement readSimple(int info) {
+    switch (info) {
+      case 20:
+        return new JsonPrimitive(false);
+      case 21:
+        return new JsonPrimitive(true);
+      case 22:
+        return JsonNull.INSTANCE;
+      case 25:
+        return new JsonPrimitive(halfToDouble((int) readBigEndian(2)));
+      case 26:
+        return new JsonPrimitive((double) Float.intBitsToFloat((int) readBigEndian(4)));
+      case 27:
+        return new JsonPrimitive(Double.longBitsToDouble(readBigEndian(8)));
+      default:
+        throw new IllegalArgumentException("Simple value " + info + " has no JSON equivalent.");
+    }
+  }
+
+  /** Reads the argument following the initial byte, a value or a length. */
+  private long readArgument(int info) {
+    if (info < 24) {
+      return info;
+    }
+    switch (info) {
+      case 24:
+        return readBigEndian(1);
+      case 25:
+        return readBigEndian(2);
+      case 26:
+        return readBigEndian(4);
+      case 27:
+        return readBigEndian(8);
+      default:
+        throw new IllegalArgumentException("Additional information " + info + " is not a definite argument.");
+    }
+  }
+
+  /** Consumes a break if one is next, and returns whether it was. */
+  private boolean readBreak() {
+    if (position >= bytes.length) {
+      throw new IllegalArgumentException("Indefinite-length item is missing its break.");
+    }
+    if ((bytes[position] & 0xff) != BREAK) {
+      return false;
+    }
+    position++;
+    return true;
+  }
+
+  private long readBigEndian(int byteCount) {
+    long value = 0;
+    for (int i = 0; i < byteCount; i++) {
+      value = (value << 8) | readByte();
+    }
+    return value;
+  }
+
+  private int readByte() {
+    if (position >= bytes.length) {
+      throw new IllegalArgumentException("Unexpected end of data.");
+    }
+    return bytes[position++] & 0xff;
+  }
+
+  /** Returns {@code argument} as a long, rejecting arguments past Long.MAX_VALUE. */
+  private static long toLong(long argument) {
+    if (argument < 0) {
+      throw new IllegalArgumentException("Integer does not fit in a long.");
+    }
+    return argument;
+  }
+
+  private static String decodeUtf8(byte[] bytes, int offset, int length) {
+    try {
+      return StandardCharsets.UTF_8.newDecoder()
+          .onMalformedInput(CodingErrorAction.REPORT)
+          .onUnmappableCharacter(CodingErrorAction.REPORT)
+          .decode(ByteBuffer.wrap(bytes, offset, length))
+          .toString();
+    } catch (CharacterCodingException e) {
+      throw new IllegalArgumentException("Text string is not valid UTF-8.", e);
+    }
+  }
+
+  /** Converts an IEEE 754 half-precision float, as in Appendix D of RFC 8949. */
+  private static double halfToDouble(int half) {
+    int exponent = (half >> 10) & 0x1f;
+    int mantissa = half & 0x3ff;
+    double value;
+    if (exponent == 0) {
+      value = Math.scalb((double) mantissa, -24);
+    } else if (exponent != 31) {
+      value = Math.scalb((double) mantissa + 1024, exponent - 25);
+    } else {
+      value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+    }
+    return (half & 0x8000) != 0 ? -value : value;
+  }
+}
@@ -0,0 +1,212 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.Comment;
+import com.google.sps.data.ImageUrls;
+import com.google.sps.data.SharedGson;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Checks CborWriter against the encodings in Appendix A of RFC 8949, and that a page of
+ * comments decodes with {@link CborDecoder} to the same tree as its JSON and is smaller.
+ */
+@RunWith(JUnit4.class)
+public final class CborWriterTest {
+  @Test
+  public void integersUseTheShortestHead() throws IOException {
+    assertEquals("00", encode(writer -> writer.value(0)));
+    assertEquals("17", encode(writer -> writer.value(23)));
+    assertEquals("1818", encode(writer -> writer.value(24)));
+    assertEquals("1864", encode(writer -> writer.value(100)));
+    assertEquals("1903e8", encode(writer -> writer.value(1000)));
+    assertEquals("1a000f4240", encode(writer -> writer.value(1000000)));
+    assertEquals("1b000000e8d4a51000", encode(writer -> writer.value(1000000000000L)));
+    assertEquals("1b7fffffffffffffff", encode(writer -> writer.value(Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void negativeIntegersAreOffsetByOne() throws IOException {
+    assertEquals("20", encode(writer -> writer.value(-1)));
+    assertEquals("29", encode(writer -> writer.value(-10)));
+    assertEquals("3863", encode(writer -> writer.value(-100)));
+    assertEquals("3903e7", encode(writer -> writer.value(-1000)));
+    assertEquals("3b7fffffffffffffff", encode(writer -> writer.value(Long.MIN_VALUE)));
+  }
+
+  @Test
+  public void wholeNumbersAreWrittenAsIntegers() throws IOException {
+    assertEquals("1903e8", encode(writer -> writer.value((Number) 1000)));
+    assertEquals("fb3ff199999999999a", encode(writer -> writer.value(1.1)));
+    assertEquals("fb3ff199999999999a", encode(writer -> writer.value((Number) 1.1)));
+  }
+
+  @Test
+  public void textIsUtf8() throws IOException {
+    assertEquals("60", encode(writer -> writer.value("")));
+    assertEquals("6161", encode(writer -> writer.value("a")));
+    assertEquals("6449455446", encode(writer -> writer.value("IETF")));
+    assertEquals("62225c", encode(writer -> writer.value("\"\\")));
+    assertEquals("62c3bc", encode(writer -> writer.value("ü")));
+    assertEquals("63e6b0b4", encode(writer -> writer.value("水")));
+    assertEquals("64f0908591", encode(writer -> writer.value("𐅑")));
+  }
+
+  @Test
+  public void simpleValues() throws IOException {
+    assertEquals("f4", encode(writer -> writer.value(false)));
+    assertEquals("f5", encode(writer -> writer.value(true)));
+    assertEquals("f6", encode(JsonWriter::nullValue));
+  }
+
+  @Test
+  public void arraysAndObjectsHaveIndefiniteLengths() throws IOException {
+    assertEquals("9fff", encode(writer -> writer.beginArray().endArray()));
+    assertEquals("bfff", encode(writer -> writer.beginObject().endObject()));
+    assertEquals("bf61610161629f0203ffff",
+        encode(writer -> writer.beginObject().name("a").value(1).name("b").beginArray().value(2).value(3).endArray().endObject()));
+  }
+
+  @Test
+  public void namedNullsAreLeftOutUnlessSerialized() throws IOException {
+    assertEquals("bfff", encode(writer -> {
+      writer.setSerializeNulls(false);
+      writer.beginObject().name("a").nullValue().endObject();
+    }));
+    assertEquals("bf6161f6ff", encode(writer -> writer.beginObject().name("a").nullValue().endObject()));
+  }
+
+  @Test
+  public void rawJsonKeepsItsNulls() throws IOException {
+    String json = "{\"a\":[1,-2.5,\"x\",null,true],\"b\":{\"c\":null}}";
+
+    byte[] cbor = encodeBytes(writer -> {
+      writer.setSerializeNulls(false);
+      writer.jsonValue(json);
+    });
+
+    assertEquals(JsonParser.parseString(json), CborDecoder.decode(cbor));
+  }
+
+  @Test
+  public void writingOutOfOrderThrows() {
+    assertThrows(IllegalStateException.class, () -> encode(writer -> writer.name("a")));
+    assertThrows(IllegalStateException.class, () -> encode(writer -> writer.beginObject().value(1)));
+    assertThrows(IllegalStateException.class, () -> encode(writer -> writer.beginArray().endObject()));
+    assertThrows(IllegalStateException.class, () -> encode(writer -> writer.beginObject().name("a").endObject()));
+    assertThrows(IllegalStateException.class, () -> encode(writer -> writer.value(1).value(2)));
+    assertThrows(IllegalStateException.class, () -> encode(JsonWriter::beginArray));
+  }
+
+  @Test
+  public void commentPageDecodesToItsJson() throws IOException {
+    List<Comment> comments = sampleComments();
+
+    byte[] cbor = encodeBytes(writer -> writePage(writer, comments));
+    String json = writeJsonPage(comments);
+
+    assertEquals(JsonParser.parseString(json), CborDecoder.decode(cbor));
+  }
+
+  @Test
+  public void commentPageIsSmallerThanJson() throws IOException {
+    List<Comment> comments = sampleComments();
+
+    int cborSize = encodeBytes(writer -> writePage(writer, comments)).length;
+    int jsonSize = writeJsonPage(comments).getBytes(StandardCharsets.UTF_8).length;
+
+    assertTrue("CBOR page of " + cborSize + " bytes is not smaller than JSON page of " + jsonSize + " bytes",
+        cborSize < jsonSize);
+  }
+
+  /** Returns comments like those a page holds, with and without images. */
+  private static List<Comment> sampleComments() {
+    List<Comment> comments = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      Optional<String> imageUrl = i % 4 == 0 ? Optional.of("https://lh3.googleusercontent.com/image-" + i) : Optional.empty();
+      comments.add(Comment.builder()
+          .setId(5629499534213120L + i)
+          .setName("Visitor " + i)
+          .setEmail("visitor" + i + "@example.com")
+          .setImageUrl(imageUrl)
+          .setImageUrls(imageUrl.map(ImageUrls::fromServingUrl))
+          .setCommentText("Comment number " + i + ", with \"quotes\" and café 😀")
+          .setSentimentScore(i * 4 - 100)
+          .setTimeStamp(1593561600000L + i * 60000L)
+          .build());
+    }
+    return comments;
+  }
+
+  /** Writes a page the way DataServlet does: the comments followed by the next cursor. */
+  private static void writePage(JsonWriter writer, List<Comment> comments) throws IOException {
+    TypeAdapter<Comment> adapter = SharedGson.getInstance().getAdapter(Comment.class);
+    writer.beginObject();
+    writer.name("comments").beginArray();
+    for (Comment comment : comments) {
+      adapter.write(writer, comment);
+    }
+    writer.endArray();
+    writer.name("nextCursor").value("CjoSNGoRZ35wb3J0Zm9saW8tc3BzchQLEgdDb21tZW50GICAgICAgIAKDBgAIAA=");
+    writer.endObject();
+  }
+
+  private static String writeJsonPage(List<Comment> comments) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JsonWriter writer = SharedGson.getInstance().newJsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    writePage(writer, comments);
+    writer.close();
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static String encode(WriterAction action) throws IOException {
+    StringBuilder hex = new StringBuilder();
+    for (byte b : encodeBytes(action)) {
+      hex.append(String.format("%02x", b & 0xff));
+    }
+    return hex.toString();
+  }
+
+  /** Returns what {@code action} writes through a CborWriter, which must be a complete item. */
+  private static byte[] encodeBytes(WriterAction action) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CborWriter writer = new CborWriter(out);
+    action.write(writer);
+    writer.close();
+    return out.toByteArray();
+  }
+
+  private interface WriterAction {
+    void write(JsonWriter writer) throws IOException;
+  }
+}
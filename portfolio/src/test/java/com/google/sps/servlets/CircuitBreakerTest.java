@@ -0,0 +1,104 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Walks a CircuitBreaker through its states with a fake clock. */
+@RunWith(JUnit4.class)
+public final class CircuitBreakerTest {
+  private static final int FAILURE_THRESHOLD = 3;
+  private static final long OPEN_MILLIS = 1000;
+
+  private long now = 0;
+  private final CircuitBreaker breaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS, () -> now);
+
+  @Test
+  public void staysClosedBelowThreshold() {
+    failCalls(FAILURE_THRESHOLD - 1);
+
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    assertTrue(breaker.allowRequest());
+  }
+
+  @Test
+  public void successResetsFailureCount() {
+    failCalls(FAILURE_THRESHOLD - 1);
+    breaker.allowRequest();
+    breaker.recordSuccess();
+    failCalls(FAILURE_THRESHOLD - 1);
+
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void opensAtThresholdAndRefusesCalls() {
+    failCalls(FAILURE_THRESHOLD);
+
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    now += OPEN_MILLIS - 1;
+    assertFalse(breaker.allowRequest());
+  }
+
+  @Test
+  public void letsOneTrialCallThroughAfterOpenPeriod() {
+    failCalls(FAILURE_THRESHOLD);
+    now += OPEN_MILLIS;
+
+    assertTrue(breaker.allowRequest());
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    assertFalse(breaker.allowRequest());
+  }
+
+  @Test
+  public void closesWhenTrialCallSucceeds() {
+    failCalls(FAILURE_THRESHOLD);
+    now += OPEN_MILLIS;
+    breaker.allowRequest();
+
+    breaker.recordSuccess();
+
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    assertTrue(breaker.allowRequest());
+  }
+
+  @Test
+  public void reopensForAnotherPeriodWhenTrialCallFails() {
+    failCalls(FAILURE_THRESHOLD);
+    now += OPEN_MILLIS;
+    breaker.allowRequest();
+
+    breaker.recordFailure();
+
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    now += OPEN_MILLIS - 1;
+    assertFalse(breaker.allowRequest());
+    now += 1;
+    assertTrue(breaker.allowRequest());
+  }
+
+  private void failCalls(int count) {
+    for (int i = 0; i < count; i++) {
+      assertTrue(breaker.allowRequest());
+      breaker.recordFailure();
+    }
+  }
+}
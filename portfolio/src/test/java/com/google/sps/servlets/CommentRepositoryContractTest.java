@@ -0,0 +1,337 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentPage;
+import com.google.sps.data.ImageUrls;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the behavior every {@link CommentRepository} promises. Each implementation has a
+ * subclass providing a new, empty repository for each test.
+ */
+public abstract class CommentRepositoryContractTest {
+  // Every comment field, and the field sets the comments page and the search index ask for.
+  private static final Set<String> ALL_FIELDS = setOf(
+      "id", "name", "email", "imageUrl", "imageUrls", "commentText", "sentimentScore", "timeStamp");
+  private static final Set<String> PAGE_FIELDS =
+      setOf("id", "commentText", "email", "timeStamp", "imageUrls", "sentimentScore");
+  private static final Set<String> INDEXED_FIELDS = setOf("id", "name", "commentText", "timeStamp");
+
+  // Reads each field of a comment, to compare only the fields a list asked for.
+  private static final Map<String, Function<Comment, Object>> FIELD_READERS = new HashMap<>();
+  static {
+    FIELD_READERS.put("id", Comment::id);
+    FIELD_READERS.put("name", Comment::name);
+    FIELD_READERS.put("email", Comment::email);
+    FIELD_READERS.put("imageUrl", Comment::imageUrl);
+    FIELD_READERS.put("imageUrls", Comment::imageUrls);
+    FIELD_READERS.put("commentText", Comment::commentText);
+    FIELD_READERS.put("sentimentScore", Comment::sentimentScore);
+    FIELD_READERS.put("timeStamp", Comment::timeStamp);
+  }
+
+  protected CommentRepository repository;
+
+  /** Returns a new repository holding no comments. */
+  protected abstract CommentRepository newRepository() throws Exception;
+
+  @Before
+  public void setUpRepository() throws Exception {
+    repository = newRepository();
+  }
+
+  @Test
+  public void addAllStoresCommentsWithIdsAndPendingScores() {
+    List<Comment> comments = Arrays.asList(
+        newComment(1000, "first", Optional.of("/serve/first")), newComment(2000, "second", Optional.empty()));
+
+    List<Comment> storedComments = repository.addAll(comments);
+
+    assertEquals(2, storedComments.size());
+    assertEquals(2, storedComments.stream().map(Comment::id).distinct().count());
+    for (int i = 0; i < comments.size(); i++) {
+      Comment expected = comments.get(i).toBuilder().setId(storedComments.get(i).id()).setSentimentScore(0).build();
+      assertEquals(expected, storedComments.get(i));
+      assertEquals(Optional.of(expected), repository.get(expected.id()));
+    }
+  }
+
+  @Test
+  public void getAllLeavesOutMissingComments() {
+    List<Comment> storedComments = add(1000, 2000, 3000);
+    long deletedId = storedComments.get(2).id();
+    repository.deleteAll(Collections.singletonList(deletedId));
+
+    Map<Long, Comment> foundComments =
+        repository.getAll(Arrays.asList(storedComments.get(0).id(), storedComments.get(1).id(), deletedId));
+
+    assertEquals(ids(storedComments.subList(0, 2)), foundComments.keySet());
+    assertEquals(Optional.empty(), repository.get(deletedId));
+  }
+
+  @Test
+  public void listPagesThroughCommentsOldestFirst() {
+    List<Comment> storedComments = add(5000, 1000, 3000, 3000, 2000, 4000, 3000);
+
+    List<Comment> listedComments = listAll(Optional.empty(), 2, ALL_FIELDS);
+
+    assertEquals(sortedByPosition(storedComments), listedComments);
+  }
+
+  @Test
+  public void listEndsWithoutCursorOnShortPage() {
+    add(1000, 2000, 3000);
+
+    CommentRepository.PageIterator page = repository.list(Optional.empty(), Optional.empty(), 5, ALL_FIELDS);
+    int readComments = drain(page).size();
+
+    assertEquals(3, readComments);
+    assertEquals(Optional.empty(), page.nextCursor());
+  }
+
+  @Test
+  public void listSinceIncludesCommentsWrittenAtThatTime() {
+    List<Comment> storedComments = add(1000, 2000, 3000, 3000, 4000);
+
+    List<Comment> listedComments = listAll(Optional.of(3000L), 10, ALL_FIELDS);
+
+    assertEquals(sortedByPosition(writtenAtOrAfter(storedComments, 3000)), listedComments);
+  }
+
+  @Test
+  public void listSincePagesWithCursors() {
+    List<Comment> storedComments = add(1000, 2000, 3000, 3000, 4000, 5000, 6000);
+
+    List<Comment> listedComments = listAll(Optional.of(2000L), 2, ALL_FIELDS);
+
+    assertEquals(sortedByPosition(writtenAtOrAfter(storedComments, 2000)), listedComments);
+  }
+
+  @Test
+  public void listFillsRequestedFields() {
+    List<Comment> storedComments = new ArrayList<>(repository.addAll(Arrays.asList(
+        newComment(1000, "with image", Optional.of("/serve/image")),
+        newComment(2000, "without image", Optional.empty()),
+        newComment(3000, "another image", Optional.of("/serve/another")))));
+    List<Comment> expectedComments = sortedByPosition(storedComments);
+
+    for (Set<String> fields : Arrays.asList(PAGE_FIELDS, INDEXED_FIELDS, ALL_FIELDS, setOf("id", "name"))) {
+      List<Comment> listedComments = listAll(Optional.empty(), 2, fields);
+
+      assertEquals(expectedComments.size(), listedComments.size());
+      for (int i = 0; i < listedComments.size(); i++) {
+        for (String field : fields) {
+          Function<Comment, Object> reader = FIELD_READERS.get(field);
+          assertEquals(fields + " " + field, reader.apply(expectedComments.get(i)), reader.apply(listedComments.get(i)));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void listRejectsForeignCursor() {
+    assertThrows(IllegalArgumentException.class,
+        () -> repository.list(Optional.empty(), Optional.of("not a cursor"), 10, ALL_FIELDS));
+  }
+
+  @Test
+  public void listUpToPagesThroughCommentsWrittenUpToTime() {
+    List<Comment> storedComments = add(1000, 2000, 3000, 3000, 4000, 5000);
+
+    List<Comment> listedComments = new ArrayList<>();
+    Optional<String> cursor = Optional.empty();
+    do {
+      CommentPage page = repository.listUpTo(3000, cursor, 2);
+      assertTrue(page.comments().size() <= 2);
+      listedComments.addAll(page.comments());
+      cursor = page.nextCursor();
+    } while (cursor.isPresent());
+
+    List<Comment> expected = storedComments.stream()
+        .filter(comment -> comment.timeStamp() <= 3000)
+        .collect(Collectors.toList());
+    assertEquals(sortedByPosition(expected), listedComments);
+  }
+
+  @Test
+  public void forEachVisitsEveryComment() {
+    List<Comment> storedComments = add(1000, 2000, 3000);
+
+    Set<Comment> visitedComments = new HashSet<>();
+    repository.forEach(visitedComments::add);
+
+    assertEquals(new HashSet<>(storedComments), visitedComments);
+  }
+
+  @Test
+  public void deleteAllRemovesCommentsAndSkipsMissingOnes() {
+    List<Comment> storedComments = add(1000, 2000, 3000);
+    repository.deleteAll(Collections.singletonList(storedComments.get(0).id()));
+
+    repository.deleteAll(Arrays.asList(storedComments.get(0).id(), storedComments.get(1).id()));
+
+    List<Comment> remaining = Collections.singletonList(storedComments.get(2));
+    assertEquals(ids(remaining), repository.getAll(ids(storedComments)).keySet());
+    assertEquals(remaining, listAll(Optional.empty(), 10, ALL_FIELDS));
+    assertEquals(remaining, repository.listUpTo(Long.MAX_VALUE, Optional.empty(), 10).comments());
+    assertEquals(Collections.singletonList(storedComments.get(2).id()), repository.findPendingSentiment(Long.MAX_VALUE, 10));
+  }
+
+  @Test
+  public void completeSentimentScoresPendingCommentOnce() {
+    Comment storedComment = add(1000).get(0);
+
+    Optional<Comment> scoredComment = repository.completeSentiment(storedComment.id(), 42);
+    Optional<Comment> rescoredComment = repository.completeSentiment(storedComment.id(), -42);
+
+    Comment expected = storedComment.toBuilder().setSentimentScore(42).build();
+    assertEquals(Optional.of(expected), scoredComment);
+    assertEquals(Optional.empty(), rescoredComment);
+    assertEquals(Optional.of(expected), repository.get(storedComment.id()));
+    assertEquals(Collections.singletonList(expected), listAll(Optional.empty(), 10, PAGE_FIELDS));
+  }
+
+  @Test
+  public void completeSentimentSkipsDeletedComment() {
+    Comment storedComment = add(1000).get(0);
+    repository.deleteAll(Collections.singletonList(storedComment.id()));
+
+    assertEquals(Optional.empty(), repository.completeSentiment(storedComment.id(), 42));
+  }
+
+  @Test
+  public void findPendingSentimentReturnsOlderUnscoredComments() {
+    List<Comment> storedComments = add(1000, 2000, 3000, 4000);
+    repository.completeSentiment(storedComments.get(1).id(), 10);
+
+    List<Long> pendingIds = repository.findPendingSentiment(4000, 10);
+    List<Long> limitedIds = repository.findPendingSentiment(4000, 1);
+
+    assertEquals(setOf(storedComments.get(0).id(), storedComments.get(2).id()), new TreeSet<>(pendingIds));
+    assertEquals(1, limitedIds.size());
+    assertTrue(pendingIds.contains(limitedIds.get(0)));
+  }
+
+  @Test
+  public void setImageBlobKeysStoresKeysOfExistingComments() {
+    List<Comment> storedComments = add(1000, 2000);
+    repository.deleteAll(Collections.singletonList(storedComments.get(1).id()));
+    Map<Long, String> imageBlobKeys = new HashMap<>();
+    imageBlobKeys.put(storedComments.get(0).id(), "blob-key");
+    imageBlobKeys.put(storedComments.get(1).id(), "deleted-blob-key");
+
+    repository.setImageBlobKeys(imageBlobKeys);
+
+    assertEquals(Optional.of("blob-key"), repository.get(storedComments.get(0).id()).get().imageBlobKey());
+    assertFalse(repository.get(storedComments.get(1).id()).isPresent());
+  }
+
+  @Test
+  public void getDeletedSinceReturnsLatestLaterDeletion() {
+    assertEquals(Optional.empty(), repository.getDeletedSince(0));
+
+    repository.recordDeletion(1000);
+    repository.recordDeletion(3000);
+    repository.recordDeletion(2000);
+
+    assertEquals(Optional.of(3000L), repository.getDeletedSince(0));
+    assertEquals(Optional.of(3000L), repository.getDeletedSince(2500));
+    assertEquals(Optional.empty(), repository.getDeletedSince(3000));
+  }
+
+  /** Stores a comment written at each of {@code timeStamps} and returns them as stored. */
+  protected List<Comment> add(long... timeStamps) {
+    List<Comment> comments = new ArrayList<>();
+    for (long timeStamp : timeStamps) {
+      comments.add(newComment(timeStamp, "Comment written at " + timeStamp, Optional.empty()));
+    }
+    return repository.addAll(comments);
+  }
+
+  protected static Comment newComment(long timeStamp, String commentText, Optional<String> imageUrl) {
+    return Comment.builder()
+        .setId(0)
+        .setName("Visitor")
+        .setEmail("visitor@example.com")
+        .setImageUrl(imageUrl)
+        .setImageUrls(imageUrl.map(ImageUrls::fromServingUrl))
+        .setCommentText(commentText)
+        .setSentimentScore(0)
+        .setTimeStamp(timeStamp)
+        .build();
+  }
+
+  /** Lists every comment with {@code fields} a page of {@code limit} at a time, following cursors. */
+  private List<Comment> listAll(Optional<Long> since, int limit, Set<String> fields) {
+    List<Comment> listedComments = new ArrayList<>();
+    Optional<String> cursor = Optional.empty();
+    do {
+      CommentRepository.PageIterator page = repository.list(since, cursor, limit, fields);
+      List<Comment> pageComments = drain(page);
+      assertTrue(pageComments.size() <= limit);
+      listedComments.addAll(pageComments);
+      cursor = page.nextCursor();
+    } while (cursor.isPresent());
+    return listedComments;
+  }
+
+  private static List<Comment> drain(CommentRepository.PageIterator page) {
+    List<Comment> comments = new ArrayList<>();
+    page.forEachRemaining(comments::add);
+    return comments;
+  }
+
+  /** Returns {@code comments} in the order repositories list them: by time stamp, then by id. */
+  private static List<Comment> sortedByPosition(List<Comment> comments) {
+    return comments.stream()
+        .sorted(Comparator.comparingLong(Comment::timeStamp).thenComparingLong(Comment::id))
+        .collect(Collectors.toList());
+  }
+
+  private static List<Comment> writtenAtOrAfter(List<Comment> comments, long since) {
+    return comments.stream().filter(comment -> comment.timeStamp() >= since).collect(Collectors.toList());
+  }
+
+  private static Set<Long> ids(List<Comment> comments) {
+    return comments.stream().map(Comment::id).collect(Collectors.toSet());
+  }
+
+  @SafeVarargs
+  private static <T extends Comparable<T>> Set<T> setOf(T... values) {
+    return new TreeSet<>(Arrays.asList(values));
+  }
+}
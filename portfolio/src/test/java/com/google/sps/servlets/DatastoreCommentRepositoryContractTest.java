@@ -0,0 +1,44 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.servlets;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.junit.After;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Runs the CommentRepository contract against DatastoreCommentRepository, on the local
+ * Datastore the SDK tests with. Every job is applied at once, so queries see each write as
+ * they do on the in-memory repositories.
+ */
+@RunWith(JUnit4.class)
+public final class DatastoreCommentRepositoryContractTest extends CommentRepositoryContractTest {
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setApplyAllHighRepJobPolicy());
+
+  @Override
+  protected CommentRepository newRepository() {
+    helper.setUp();
+    return new DatastoreCommentRepository();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+}
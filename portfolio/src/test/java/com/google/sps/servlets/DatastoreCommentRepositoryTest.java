@@ -0,0 +1,107 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.datastore.Projection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks which comment pages DatastoreCommentRepository reads with projection queries. */
+@RunWith(JUnit4.class)
+public final class DatastoreCommentRepositoryTest {
+  // Fields the comments page asks for, as listed in comment-script.js.
+  private static final Set<String> PAGE_FIELDS =
+      fields("id", "commentText", "email", "timeStamp", "imageUrls", "sentimentScore");
+  // Properties the composite index in datastore-indexes.xml covers.
+  private static final Set<String> INDEXED_PROPERTIES =
+      fields("commentText", "email", "timeStamp", "imageUrl", "sentimentScore");
+
+  @Before
+  public void setUp() {
+    TestEnvironment.install();
+  }
+
+  @After
+  public void tearDown() {
+    TestEnvironment.uninstall();
+  }
+
+  @Test
+  public void pageFieldsAreProjected() {
+    Query query = DatastoreCommentRepository.newListQuery(Optional.empty(), PAGE_FIELDS);
+
+    assertEquals(INDEXED_PROPERTIES, projectedProperties(query.getProjections()));
+  }
+
+  @Test
+  public void pageFieldsWithoutIdAreProjected() {
+    Set<String> fields = new TreeSet<>(PAGE_FIELDS);
+    fields.remove("id");
+
+    Query query = DatastoreCommentRepository.newListQuery(Optional.empty(), fields);
+
+    assertEquals(INDEXED_PROPERTIES, projectedProperties(query.getProjections()));
+  }
+
+  @Test
+  public void pageFieldsSinceTimeStampAreProjected() {
+    Query query = DatastoreCommentRepository.newListQuery(Optional.of(1000L), PAGE_FIELDS);
+
+    assertEquals(INDEXED_PROPERTIES, projectedProperties(query.getProjections()));
+  }
+
+  @Test
+  public void sinceIncludesCommentsWrittenAtThatTimeStamp() {
+    Query query = DatastoreCommentRepository.newListQuery(Optional.of(1000L), PAGE_FIELDS);
+
+    FilterPredicate filter = (FilterPredicate) query.getFilter();
+    assertEquals("timeStamp", filter.getPropertyName());
+    assertEquals(FilterOperator.GREATER_THAN_OR_EQUAL, filter.getOperator());
+    assertEquals(1000L, filter.getValue());
+  }
+
+  @Test
+  public void unindexedFieldSetsLoadWholeEntities() {
+    Query query = DatastoreCommentRepository.newListQuery(Optional.empty(), fields("name", "commentText"));
+
+    assertTrue(query.getProjections().isEmpty());
+  }
+
+  private static Set<String> projectedProperties(Collection<Projection> projections) {
+    Set<String> properties = new TreeSet<>();
+    for (Projection projection : projections) {
+      properties.add(projection.getName());
+    }
+    return properties;
+  }
+
+  private static Set<String> fields(String... fields) {
+    return new TreeSet<>(Arrays.asList(fields));
+  }
+}
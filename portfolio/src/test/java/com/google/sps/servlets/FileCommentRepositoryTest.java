@@ -0,0 +1,84 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.servlets;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.sps.data.Comment;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Runs the CommentRepository contract against FileCommentRepository, and checks that a
+ * repository reopened on the same journal holds the same comments.
+ */
+@RunWith(JUnit4.class)
+public final class FileCommentRepositoryTest extends CommentRepositoryContractTest {
+  private Path journalPath;
+
+  @Override
+  protected CommentRepository newRepository() throws IOException {
+    journalPath = Files.createTempFile("comments", ".jsonl");
+    return FileCommentRepository.open(journalPath.toString());
+  }
+
+  @After
+  public void deleteJournal() throws IOException {
+    Files.deleteIfExists(journalPath);
+  }
+
+  @Test
+  public void reopenedRepositoryReplaysEveryChange() {
+    List<Comment> storedComments = add(1000, 2000, 3000);
+    repository.completeSentiment(storedComments.get(0).id(), 42);
+    repository.deleteAll(Collections.singletonList(storedComments.get(1).id()));
+    repository.setImageBlobKeys(Collections.singletonMap(storedComments.get(2).id(), "blob-key"));
+    repository.recordDeletion(500);
+
+    CommentRepository reopenedRepository = FileCommentRepository.open(journalPath.toString());
+
+    Set<Comment> expected = new HashSet<>();
+    expected.add(storedComments.get(0).toBuilder().setSentimentScore(42).build());
+    expected.add(storedComments.get(2).toBuilder().setImageBlobKey(Optional.of("blob-key")).build());
+    Set<Comment> reopenedComments = new HashSet<>();
+    reopenedRepository.forEach(reopenedComments::add);
+    assertEquals(expected, reopenedComments);
+    assertEquals(Collections.singletonList(storedComments.get(2).id()), reopenedRepository.findPendingSentiment(Long.MAX_VALUE, 10));
+    assertEquals(Optional.of(500L), reopenedRepository.getDeletedSince(0));
+  }
+
+  @Test
+  public void reopenedRepositoryKeepsAssigningNewIds() {
+    Comment storedComment = add(1000).get(0);
+
+    CommentRepository reopenedRepository = FileCommentRepository.open(journalPath.toString());
+    Comment newComment = reopenedRepository.addAll(
+        Collections.singletonList(newComment(2000, "after reopening", Optional.empty()))).get(0);
+
+    assertEquals(2, new HashSet<>(Arrays.asList(storedComment.id(), newComment.id())).size());
+  }
+}
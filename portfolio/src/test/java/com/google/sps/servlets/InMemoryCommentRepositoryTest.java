@@ -0,0 +1,28 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.sps.servlets;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Runs the CommentRepository contract against InMemoryCommentRepository. */
+@RunWith(JUnit4.class)
+public final class InMemoryCommentRepositoryTest extends CommentRepositoryContractTest {
+  @Override
+  protected CommentRepository newRepository() {
+    return new InMemoryCommentRepository();
+  }
+}
@@ -0,0 +1,55 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks LexiconSentimentEngine against the hand-labelled SentimentSamples. */
+@RunWith(JUnit4.class)
+public final class LexiconSentimentEngineTest {
+
+  @Test
+  public void samplesGetTheirLabel() {
+    for (SentimentSamples.Sample sample : SentimentSamples.ALL) {
+      assertEquals(sample.text, sample.label,
+          SentimentEngineComparison.label(LexiconSentimentEngine.scoreText(sample.text)));
+    }
+  }
+
+  @Test
+  public void negationFlipsAndWeakens() {
+    long good = LexiconSentimentEngine.scoreText("good");
+    long notGood = LexiconSentimentEngine.scoreText("not good");
+
+    assertTrue(notGood < 0);
+    assertTrue(-notGood < good);
+  }
+
+  @Test
+  public void scoresStayInRange() {
+    String gushing = String.join(" ", Collections.nCopies(200, "amazing"));
+    String ranting = String.join(" ", Collections.nCopies(200, "awful"));
+
+    assertTrue(LexiconSentimentEngine.scoreText(gushing) <= 100);
+    assertTrue(LexiconSentimentEngine.scoreText(ranting) >= -100);
+    assertEquals(0, LexiconSentimentEngine.scoreText(""));
+  }
+}
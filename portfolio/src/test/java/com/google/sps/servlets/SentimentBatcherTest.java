@@ -0,0 +1,225 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.core.SettableApiFuture;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Checks the guards of SentimentBatcher with a fake engine that stays slow until released:
+ * the call deadline, the limit on calls in flight and the circuit breaker.
+ */
+@RunWith(JUnit4.class)
+public final class SentimentBatcherTest {
+  private static final long DEADLINE_MILLIS = 200;
+  // Matches MAX_CALLS_IN_FLIGHT of SentimentBatcher.
+  private static final int MAX_CALLS_IN_FLIGHT = 10;
+  private static final int FAILURE_THRESHOLD = 5;
+  private static final long OPEN_MILLIS = 30 * 1000;
+  // Deadline long enough that only the interrupted listener can end a trial call.
+  private static final long TRIAL_DEADLINE_MILLIS = 10 * 1000;
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final SlowSentimentEngine engine = new SlowSentimentEngine();
+  private final List<SettableApiFuture<Long>> startedCalls = Collections.synchronizedList(new ArrayList<>());
+  private long now = 0;
+  private final CircuitBreaker circuitBreaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS, () -> now);
+  private final SentimentBatcher batcher = new SentimentBatcher(this::startCall, DEADLINE_MILLIS, circuitBreaker);
+
+  @After
+  public void tearDown() {
+    engine.release();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void scoresTextWhenEngineAnswersInTime() {
+    engine.release();
+
+    assertEquals(LexiconSentimentEngine.scoreText("great post"), batcher.score("great post"));
+    assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+  }
+
+  @Test
+  public void cancelsCallPastDeadline() {
+    CompletionException thrown = assertThrows(CompletionException.class, () -> batcher.score("slow text"));
+
+    assertTrue(thrown.getCause() instanceof TimeoutException);
+    assertTrue(startedCalls.get(0).isCancelled());
+    assertEquals(1L, batcher.getMetrics().get("timedOutCalls"));
+  }
+
+  @Test
+  public void cancelledCallGivesBackItsPermit() {
+    for (int i = 0; i < MAX_CALLS_IN_FLIGHT + 1; i++) {
+      assertThrows(CompletionException.class, () -> batcher.score("slow text"));
+      // Failures would open the circuit before the permits run out.
+      circuitBreaker.recordSuccess();
+    }
+
+    assertEquals(0L, batcher.getMetrics().get("refusedCalls"));
+  }
+
+  @Test
+  public void refusesCallsPastLimitInFlight() {
+    List<String> texts = new ArrayList<>();
+    for (int i = 0; i <= MAX_CALLS_IN_FLIGHT; i++) {
+      texts.add("text " + i);
+    }
+
+    Map<String, Long> scores = batcher.scoreAll(texts);
+
+    assertTrue(scores.isEmpty());
+    assertEquals(MAX_CALLS_IN_FLIGHT, startedCalls.size());
+    assertEquals(1L, batcher.getMetrics().get("refusedCalls"));
+    assertEquals((long) MAX_CALLS_IN_FLIGHT, batcher.getMetrics().get("timedOutCalls"));
+  }
+
+  @Test
+  public void refusedCallFailsRightAway() {
+    for (int i = 0; i < MAX_CALLS_IN_FLIGHT; i++) {
+      String text = "text " + i;
+      executor.execute(() -> batcher.scoreAll(Collections.singletonList(text)));
+    }
+    awaitStartedCalls(MAX_CALLS_IN_FLIGHT);
+
+    long startNanos = System.nanoTime();
+    CompletionException thrown = assertThrows(CompletionException.class, () -> batcher.score("one too many"));
+
+    assertTrue(thrown.getCause() instanceof RejectedExecutionException);
+    assertTrue(System.nanoTime() - startNanos < TimeUnit.MILLISECONDS.toNanos(DEADLINE_MILLIS));
+  }
+
+  @Test
+  public void repeatedTextIsSentOnce() {
+    engine.release();
+
+    Map<String, Long> scores = batcher.scoreAll(Arrays.asList("same", "same", "other"));
+
+    assertEquals(2, scores.size());
+    assertEquals(2, startedCalls.size());
+  }
+
+  @Test
+  public void opensCircuitAfterRepeatedTimeouts() {
+    for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+      assertThrows(CompletionException.class, () -> batcher.score("slow text"));
+    }
+
+    assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    CompletionException thrown = assertThrows(CompletionException.class, () -> batcher.score("slow text"));
+    assertTrue(thrown.getCause() instanceof RejectedExecutionException);
+    assertEquals(FAILURE_THRESHOLD, startedCalls.size());
+  }
+
+  @Test
+  public void interruptedTrialCallReopensCircuit() throws Exception {
+    openCircuit();
+    now += OPEN_MILLIS;
+    SentimentBatcher trialBatcher = new SentimentBatcher(text -> {
+      SettableApiFuture<Long> response = SettableApiFuture.create();
+      startedCalls.add(response);
+      return response;
+    }, TRIAL_DEADLINE_MILLIS, circuitBreaker);
+    executor.execute(() -> trialBatcher.scoreAll(Collections.singletonList("trial")));
+    awaitStartedCalls(1);
+    assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+    // The listener runs on the completing thread, which was interrupted meanwhile.
+    Thread completer = new Thread(() -> {
+      Thread.currentThread().interrupt();
+      startedCalls.get(0).set(50L);
+    });
+    completer.start();
+    completer.join();
+
+    assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+  }
+
+  /** Starts {@code text} on the slow engine, completing the returned future when it answers. */
+  private SettableApiFuture<Long> startCall(String text) {
+    SettableApiFuture<Long> response = SettableApiFuture.create();
+    startedCalls.add(response);
+    executor.execute(() -> {
+      try {
+        response.set(engine.score(text));
+      } catch (RuntimeException e) {
+        response.setException(e);
+      }
+    });
+    return response;
+  }
+
+  private void openCircuit() {
+    for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+      circuitBreaker.allowRequest();
+      circuitBreaker.recordFailure();
+    }
+    assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+  }
+
+  private void awaitStartedCalls(int count) {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (startedCalls.size() < count) {
+      assertFalse("Calls never started.", System.nanoTime() > deadline);
+      Thread.yield();
+    }
+  }
+
+  /** Engine blocking every call until released, then scoring with the word list. */
+  private static final class SlowSentimentEngine implements SentimentEngine {
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    void release() {
+      released.countDown();
+    }
+
+    @Override
+    public long score(String text) {
+      try {
+        released.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CompletionException(e);
+      }
+      return LexiconSentimentEngine.scoreText(text);
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+      return Collections.emptyMap();
+    }
+  }
+}
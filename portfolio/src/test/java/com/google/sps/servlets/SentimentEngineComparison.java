@@ -0,0 +1,124 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.ToLongFunction;
+
+/**
+ * Scores the same labelled comments with LexiconSentimentEngine and the Natural Language API
+ * and prints how often each agrees with the labels and with the other, along with latency.
+ * Not a test, since the API needs credentials; run it by hand from the test classpath.
+ *
+ * <p>With {@code -Dsentiment.compare.cloud=true} the API is called with application default
+ * credentials. Otherwise it is stood in for by a fake answering after
+ * {@code -Dsentiment.compare.fakeLatencyMillis}, which should be set to the
+ * {@code averageLatencyMillis} /language-metrics reports in production. The fake knows no
+ * scores, so only latency is compared then.
+ */
+public final class SentimentEngineComparison {
+  // Times every comment is scored by the lexicon. Its first pass warms up the JIT and is left out.
+  private static final int LEXICON_PASSES = 200;
+  // Scores within this distance of zero count as neutral.
+  private static final long NEUTRAL_BAND = 10;
+  // Latency of the fake API when none is given.
+  private static final long DEFAULT_FAKE_LATENCY_MILLIS = 100;
+
+  private SentimentEngineComparison() {}
+
+  public static void main(String[] args) throws Exception {
+    List<SentimentSamples.Sample> samples = SentimentSamples.ALL;
+    long[] lexiconScores = new long[samples.size()];
+    List<Long> lexiconNanos = new ArrayList<>();
+    for (int pass = 0; pass < LEXICON_PASSES; pass++) {
+      for (int i = 0; i < samples.size(); i++) {
+        long startNanos = System.nanoTime();
+        lexiconScores[i] = LexiconSentimentEngine.scoreText(samples.get(i).text);
+        if (pass > 0) {
+          lexiconNanos.add(System.nanoTime() - startNanos);
+        }
+      }
+    }
+
+    boolean callCloud = Boolean.getBoolean("sentiment.compare.cloud");
+    long[] cloudScores = new long[samples.size()];
+    List<Long> cloudNanos = new ArrayList<>();
+    try (LanguageServiceClient client = callCloud ? LanguageServiceClient.create() : null) {
+      ToLongFunction<String> cloud = callCloud ? text -> callApi(client, text) : text -> callFake();
+      for (int i = 0; i < samples.size(); i++) {
+        long startNanos = System.nanoTime();
+        cloudScores[i] = cloud.applyAsLong(samples.get(i).text);
+        cloudNanos.add(System.nanoTime() - startNanos);
+      }
+    }
+
+    System.out.println("comments: " + samples.size());
+    printLatency("lexicon", lexiconNanos);
+    printLatency(callCloud ? "cloud" : "fake cloud", cloudNanos);
+    System.out.printf(Locale.ROOT, "lexicon agrees with labels: %d/%d%n",
+        countAgreeing(lexiconScores, samples), samples.size());
+    if (callCloud) {
+      System.out.printf(Locale.ROOT, "cloud agrees with labels: %d/%d%n",
+          countAgreeing(cloudScores, samples), samples.size());
+      int agreeing = 0;
+      long totalDifference = 0;
+      for (int i = 0; i < samples.size(); i++) {
+        agreeing += label(lexiconScores[i]) == label(cloudScores[i]) ? 1 : 0;
+        totalDifference += Math.abs(lexiconScores[i] - cloudScores[i]);
+      }
+      System.out.printf(Locale.ROOT, "lexicon agrees with cloud: %d/%d, mean score difference %.1f%n",
+          agreeing, samples.size(), (double) totalDifference / samples.size());
+    }
+  }
+
+  private static long callApi(LanguageServiceClient client, String text) {
+    Document doc = Document.newBuilder().setContent(text).setType(Document.Type.PLAIN_TEXT).build();
+    return (long) (client.analyzeSentiment(doc).getDocumentSentiment().getScore() * 100);
+  }
+
+  private static long callFake() {
+    try {
+      Thread.sleep(Long.getLong("sentiment.compare.fakeLatencyMillis", DEFAULT_FAKE_LATENCY_MILLIS));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return 0;
+  }
+
+  /** Returns -1, 0 or 1 for a negative, neutral or positive {@code score}. */
+  static int label(long score) {
+    return Math.abs(score) <= NEUTRAL_BAND ? 0 : Long.signum(score);
+  }
+
+  private static int countAgreeing(long[] scores, List<SentimentSamples.Sample> samples) {
+    int agreeing = 0;
+    for (int i = 0; i < samples.size(); i++) {
+      agreeing += label(scores[i]) == samples.get(i).label ? 1 : 0;
+    }
+    return agreeing;
+  }
+
+  private static void printLatency(String engine, List<Long> nanos) {
+    List<Long> sorted = new ArrayList<>(nanos);
+    Collections.sort(sorted);
+    System.out.printf(Locale.ROOT, "%s latency: median %.1f us, p99 %.1f us over %d calls%n", engine,
+        sorted.get(sorted.size() / 2) / 1000.0, sorted.get((int) (sorted.size() * 0.99)) / 1000.0, sorted.size());
+  }
+}
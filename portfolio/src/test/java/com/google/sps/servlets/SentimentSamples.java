@@ -0,0 +1,67 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/** Comments labelled by hand as negative (-1), neutral (0) or positive (1), for comparing engines. */
+final class SentimentSamples {
+  static final List<Sample> ALL = Collections.unmodifiableList(Arrays.asList(
+      new Sample(1, "Love the new portfolio, the projects section is great!"),
+      new Sample(1, "This is really impressive work, thanks for sharing."),
+      new Sample(1, "Beautiful photos, I enjoyed looking through them."),
+      new Sample(1, "Super helpful write-up, I would recommend it to anyone starting out."),
+      new Sample(1, "Awesome site. Clean and easy to read."),
+      new Sample(1, "Happy to see you finished the capstone, well done!"),
+      new Sample(1, "The game demo is so much fun."),
+      new Sample(1, "Not bad at all, I liked the animations."),
+      new Sample(1, "Best portfolio I have seen this week."),
+      new Sample(1, "Thank you, this answered my question perfectly."),
+      new Sample(-1, "The page is really slow to load and the images are broken."),
+      new Sample(-1, "Terrible color scheme, hard to read anything."),
+      new Sample(-1, "I was disappointed that the demo link is dead."),
+      new Sample(-1, "This is the worst layout, everything overlaps on my phone."),
+      new Sample(-1, "Boring. Nothing here I haven't seen before."),
+      new Sample(-1, "The contact form failed twice, annoying."),
+      new Sample(-1, "I don't like the music that autoplays."),
+      new Sample(-1, "Confusing navigation, I got lost looking for the resume."),
+      new Sample(-1, "Ugly fonts and a messy gallery."),
+      new Sample(-1, "Not good, the search never returns anything useful."),
+      new Sample(0, "Which framework did you use for the charts?"),
+      new Sample(0, "I visited from the hackathon page."),
+      new Sample(0, "The resume link points to a PDF."),
+      new Sample(0, "Are you going to add more projects later this year?"),
+      new Sample(0, "Posted from my tablet."),
+      new Sample(0, "The map shows the places you lived in."),
+      new Sample(0, "What camera took the photo of the bridge?"),
+      new Sample(0, "First comment here."),
+      new Sample(0, "See the repository for the source code."),
+      new Sample(0, "The talk was recorded on Tuesday.")));
+
+  private SentimentSamples() {}
+
+  /** Comment text along with its label. */
+  static final class Sample {
+    final int label;
+    final String text;
+
+    Sample(int label, String text) {
+      this.label = label;
+      this.text = text;
+    }
+  }
+}